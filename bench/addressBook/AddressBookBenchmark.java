@@ -0,0 +1,120 @@
+package addressBook;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for modifying an {@link AddressBook} and listing its
+ * contacts. Searches are measured by {@link SearchBenchmark}, serialization by
+ * {@link PersistenceBenchmark}. Books are filled by a
+ * {@link ContactGenerator} with a fixed seed, so results for the same size
+ * are comparable across commits.
+ *
+ * The benchmarks live in their own source tree and are not part of the
+ * library. To run them, compile {@code src} and {@code bench} together with
+ * jmh-core and jmh-generator-annprocess (1.x) on the class path, so that the
+ * annotation processor generates the harness, and start
+ * {@code org.openjdk.jmh.Main}, e.g.
+ *
+ * <pre>
+ * java -cp &lt;classes&gt;:&lt;jmh jars&gt;:libphonenumber-5.8.jar \
+ *     org.openjdk.jmh.Main AddressBookBenchmark -p size=100000
+ * </pre>
+ *
+ * @author ck1456@nyu.edu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressBookBenchmark {
+
+  @Param({ "1000", "100000", "1000000" })
+  public int size;
+
+  private AddressBook addressBook;
+
+  // Contacts that are not in the book, added and removed again by the
+  // add/remove benchmark
+  private List<Contact> extraContacts;
+
+  private int nextExtra = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ContactGenerator generator = new ContactGenerator();
+    addressBook = generator.nextAddressBook(size);
+    extraContacts = generator.nextContacts(1024);
+  }
+
+  /**
+   * Adds a contact and removes it again, keeping the size of the book stable
+   */
+  @Benchmark
+  public AddressBook addRemove() {
+    Contact contact = extraContacts.get(nextExtra++ & 1023);
+    addressBook.add(contact);
+    addressBook.remove(contact);
+    return addressBook;
+  }
+
+  /**
+   * Adds 1024 contacts one at a time and removes them again
+   */
+  @Benchmark
+  public AddressBook addRemoveEach() {
+    for (Contact contact : extraContacts) {
+      addressBook.add(contact);
+    }
+    for (Contact contact : extraContacts) {
+      addressBook.remove(contact);
+    }
+    return addressBook;
+  }
+
+  /**
+   * Adds 1024 contacts as one batch and removes them again
+   */
+  @Benchmark
+  public AddressBook addRemoveBatch() {
+    addressBook.addAll(extraContacts);
+    addressBook.removeAll(extraContacts);
+    return addressBook;
+  }
+
+  /**
+   * Lists the contacts of an unmodified book
+   */
+  @Benchmark
+  public List<Contact> getAllContacts() {
+    return addressBook.getAllContacts();
+  }
+
+  /**
+   * Lists the contacts after each modification, which cannot reuse the list
+   * returned by the previous call
+   */
+  @Benchmark
+  public List<Contact> getAllContactsAfterAdd() {
+    Contact contact = extraContacts.get(nextExtra++ & 1023);
+    addressBook.add(contact);
+    List<Contact> contacts = addressBook.getAllContacts();
+    addressBook.remove(contact);
+    return contacts;
+  }
+}
@@ -0,0 +1,186 @@
+package addressBook;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible synthetic contacts for benchmarks. Two generators
+ * created with the same seed produce the same sequence of contacts, so that
+ * results for a given book size can be compared across commits.
+ *
+ * Names are drawn from small pools, as in a real address book, so that many
+ * contacts share a first or last name; a numeric suffix on the first name
+ * keeps every full name unique. About 80% of the contacts have a postal
+ * address and a phone number, and about 60% have a note. A sparse generator
+ * instead leaves most optional fields empty (null), as in a book imported
+ * from a phone: about a third of the contacts have no last name, and only
+ * about 20% have an email address, a postal address and phone number, or a
+ * note.
+ *
+ * @author ck1456@nyu.edu
+ */
+public final class ContactGenerator {
+
+  /**
+   * The seed used by the benchmarks unless specified otherwise
+   */
+  public static final long DEFAULT_SEED = 20140301L;
+
+  private static final String[] FIRST_NAMES = { "James", "Mary", "John",
+      "Patricia", "Robert", "Jennifer", "Michael", "Linda", "William",
+      "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica",
+      "Thomas", "Sarah", "Charles", "Karen", "Wei", "Priya", "Jose", "Fatima",
+      "Hiroshi", "Olga", "Ahmed", "Chloe", "Mateo", "Ingrid" };
+
+  private static final String[] LAST_NAMES = { "Smith", "Johnson", "Williams",
+      "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+      "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas",
+      "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson",
+      "White", "Harris", "Sanchez", "Clark", "Ramirez", "Lewis", "Robinson",
+      "Walker", "Young", "Allen", "King", "Wright", "Scott", "Torres",
+      "Nguyen", "Hill", "Flores", "Chen", "Patel", "Kim", "Singh", "Ivanova",
+      "Schmidt", "Rossi", "Silva", "Tanaka", "Okafor" };
+
+  private static final String[] STREETS = { "Broadway", "Main Street",
+      "Park Avenue", "Elm Street", "Washington Square", "River Court",
+      "Church Street", "High Street", "Maple Avenue", "Lake Drive" };
+
+  private static final String[][] CITIES = { { "New York", "NY", "100" },
+      { "Jersey City", "NJ", "073" }, { "Boston", "MA", "021" },
+      { "Chicago", "IL", "606" }, { "San Francisco", "CA", "941" },
+      { "Austin", "TX", "787" }, { "Seattle", "WA", "981" },
+      { "Denver", "CO", "802" } };
+
+  private static final String[] AREA_CODES = { "212", "646", "718", "201",
+      "617", "312", "415", "512", "206", "303" };
+
+  private static final String[] EMAIL_DOMAINS = { "gmail.com", "nyu.edu",
+      "hotmail.com", "yahoo.com", "example.org" };
+
+  private static final String[] NOTES = { "met at conference",
+      "family account", "college roommate", "call after 6pm", "dentist",
+      "former colleague", "plumber", "book club" };
+
+  private final Random random;
+
+  private final boolean sparse;
+
+  private int next = 0;
+
+  /**
+   * Creates a generator with the default seed
+   */
+  public ContactGenerator() {
+    this(DEFAULT_SEED);
+  }
+
+  /**
+   * Creates a generator with the supplied seed
+   *
+   * @param seed
+   *          the seed of the random sequence
+   */
+  public ContactGenerator(long seed) {
+    this(seed, false);
+  }
+
+  /**
+   * Creates a generator with the supplied seed
+   *
+   * @param seed
+   *          the seed of the random sequence
+   * @param sparse
+   *          whether most optional fields should be left empty
+   */
+  public ContactGenerator(long seed, boolean sparse) {
+    random = new Random(seed);
+    this.sparse = sparse;
+  }
+
+  /**
+   * Generates the next contact of the sequence
+   *
+   * @return a new contact
+   */
+  public Contact nextContact() {
+    int id = next++;
+    String firstName = pick(FIRST_NAMES) + id;
+    String lastName = pick(LAST_NAMES);
+    if (sparse && random.nextInt(3) == 0) {
+      lastName = null;
+    }
+    Contact contact = Contact.createWithName(firstName, lastName);
+    if (!sparse || random.nextInt(10) < 2) {
+      contact.setEmailAddress(firstName.toLowerCase() + "."
+          + (lastName == null ? "" : lastName.toLowerCase()) + "@"
+          + pick(EMAIL_DOMAINS));
+    }
+
+    if (random.nextInt(10) < (sparse ? 2 : 8)) {
+      String[] city = CITIES[random.nextInt(CITIES.length)];
+      contact.setPostalAddress(new PostalAddress((1 + random.nextInt(500))
+          + " " + pick(STREETS), (random.nextBoolean() ? "" : "Apt "
+          + (1 + random.nextInt(40))), city[0], city[1], "US", city[2]
+          + (10 + random.nextInt(90))));
+      contact.setPhoneNumber(PhoneNumber.tryCreateNew(nextPhoneNumber()));
+    }
+    if (random.nextInt(10) < (sparse ? 2 : 6)) {
+      contact.setNote(pick(NOTES));
+    }
+    return contact;
+  }
+
+  /**
+   * Generates the next contacts of the sequence
+   *
+   * @param count
+   *          the number of contacts to generate
+   * @return a list of new contacts
+   */
+  public List<Contact> nextContacts(int count) {
+    List<Contact> contacts = new ArrayList<Contact>(count);
+    for (int i = 0; i < count; i++) {
+      contacts.add(nextContact());
+    }
+    return contacts;
+  }
+
+  /**
+   * Generates an AddressBook holding the next contacts of the sequence
+   *
+   * @param count
+   *          the number of contacts to generate
+   * @return a new AddressBook with {@code count} contacts
+   */
+  public AddressBook nextAddressBook(int count) {
+    AddressBook addressBook = AddressBook.createEmpty();
+    for (int i = 0; i < count; i++) {
+      addressBook.add(nextContact());
+    }
+    return addressBook;
+  }
+
+  /**
+   * Generates a ten digit US phone number in one of several common formats
+   *
+   * @return the text of a phone number
+   */
+  public String nextPhoneNumber() {
+    String areaCode = pick(AREA_CODES);
+    int exchange = 200 + random.nextInt(800);
+    int line = random.nextInt(10000);
+    switch (random.nextInt(3)) {
+    case 0:
+      return String.format("%s%d%04d", areaCode, exchange, line);
+    case 1:
+      return String.format("(%s) %d-%04d", areaCode, exchange, line);
+    default:
+      return String.format("+1 %s-%d-%04d", areaCode, exchange, line);
+    }
+  }
+
+  private String pick(String[] values) {
+    return values[random.nextInt(values.length)];
+  }
+}
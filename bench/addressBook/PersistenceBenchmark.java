@@ -0,0 +1,107 @@
+package addressBook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for serializing and deserializing an {@link AddressBook} in
+ * each of the supported formats. The xml formats are written to and read from
+ * memory; the binary format is loaded from a temporary file because it is
+ * memory-mapped. See {@link AddressBookBenchmark} for how to run them.
+ *
+ * @author ck1456@nyu.edu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+  @Param({ "1000", "100000", "1000000" })
+  public int size;
+
+  private AddressBook addressBook;
+
+  private byte[] xml;
+
+  private File binaryFile;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    addressBook = new ContactGenerator().nextAddressBook(size);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    addressBook.saveStreaming(os);
+    xml = os.toByteArray();
+    binaryFile = File.createTempFile("addressBook", ".bin");
+    addressBook.saveBinary(binaryFile.getPath());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    binaryFile.delete();
+  }
+
+  @Benchmark
+  public byte[] save() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(xml.length);
+    addressBook.save(os);
+    return os.toByteArray();
+  }
+
+  @Benchmark
+  public AddressBook load() throws Exception {
+    return AddressBook.load(new ByteArrayInputStream(xml));
+  }
+
+  /**
+   * Saves the book and loads the result again
+   */
+  @Benchmark
+  public AddressBook saveLoadRoundTrip() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(xml.length);
+    addressBook.save(os);
+    return AddressBook.load(new ByteArrayInputStream(os.toByteArray()));
+  }
+
+  @Benchmark
+  public byte[] saveStreaming() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(xml.length);
+    addressBook.saveStreaming(os);
+    return os.toByteArray();
+  }
+
+  @Benchmark
+  public AddressBook loadStreaming() throws Exception {
+    return AddressBook.loadStreaming(new ByteArrayInputStream(xml));
+  }
+
+  @Benchmark
+  public byte[] saveBinary() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    addressBook.saveBinary(os);
+    return os.toByteArray();
+  }
+
+  @Benchmark
+  public AddressBook loadBinary() throws Exception {
+    return AddressBook.loadBinary(binaryFile.getPath());
+  }
+}
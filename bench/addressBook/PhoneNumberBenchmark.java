@@ -0,0 +1,60 @@
+package addressBook;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for parsing and formatting {@link PhoneNumber}s. Inputs are a
+ * fixed set of generated numbers in several common formats. See
+ * {@link AddressBookBenchmark} for how to run them.
+ *
+ * @author ck1456@nyu.edu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhoneNumberBenchmark {
+
+  private static final int COUNT = 4096;
+
+  private String[] numbers;
+
+  private PhoneNumber[] parsed;
+
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    ContactGenerator generator = new ContactGenerator();
+    numbers = new String[COUNT];
+    parsed = new PhoneNumber[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      numbers[i] = generator.nextPhoneNumber();
+      parsed[i] = PhoneNumber.createNew(numbers[i]);
+    }
+  }
+
+  @Benchmark
+  public PhoneNumber createNew() throws Exception {
+    return PhoneNumber.createNew(numbers[next++ & (COUNT - 1)]);
+  }
+
+  @Benchmark
+  public String asString() {
+    return parsed[next++ & (COUNT - 1)].asString();
+  }
+}
@@ -0,0 +1,132 @@
+package addressBook;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for {@link AddressBook#search(String, ISearchFilter)} with
+ * each of the predefined {@link SearchFilters}, on books where all fields are
+ * populated and on sparse books where most optional fields are null. The
+ * latter shows the cost of filters handling missing fields. See
+ * {@link AddressBookBenchmark} for how to run them. The *Columnar benchmarks
+ * run the same queries on {@link AddressBook#toColumnar()}, and the *OffHeap
+ * benchmarks on an {@link OffHeapAddressBook} holding the same contacts.
+ *
+ * @author ck1456@nyu.edu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+  @Param({ "1000", "100000", "1000000" })
+  public int size;
+
+  /**
+   * The name of a filter field in {@link SearchFilters}
+   */
+  @Param({ "AnyField", "Name", "PostalAddress", "EmailAddress", "PhoneNumber",
+      "Note" })
+  public String filter;
+
+  @Param({ "false", "true" })
+  public boolean sparse;
+
+  private AddressBook addressBook;
+
+  private ColumnarAddressBook columnar;
+
+  private OffHeapAddressBook offHeap;
+
+  private ISearchFilter searchFilter;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    addressBook = new ContactGenerator(ContactGenerator.DEFAULT_SEED, sparse)
+        .nextAddressBook(size);
+    columnar = addressBook.toColumnar();
+    offHeap = OffHeapAddressBook.createEmpty();
+    offHeap.addAll(addressBook.getAllContacts());
+    searchFilter = (ISearchFilter) SearchFilters.class.getField(filter).get(
+        null);
+  }
+
+  /**
+   * A short query that matches many contacts in every field group
+   */
+  @Benchmark
+  public List<Contact> searchCommon() {
+    return addressBook.search("12", searchFilter);
+  }
+
+  /**
+   * The first page of the matches of a query that matches many contacts,
+   * found lazily
+   */
+  @Benchmark
+  public int searchCommonFirst20() {
+    int count = 0;
+    for (Iterator<Contact> it = addressBook.searchIterator("12",
+        searchFilter, 20); it.hasNext(); it.next()) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * A query matching no contact, so that every field has to be inspected
+   */
+  @Benchmark
+  public List<Contact> searchMissing() {
+    return addressBook.search("zqx", searchFilter);
+  }
+
+  /**
+   * {@link #searchCommon()} on a columnar copy of the book
+   */
+  @Benchmark
+  public List<Contact> searchCommonColumnar() {
+    return columnar.search("12", searchFilter);
+  }
+
+  /**
+   * {@link #searchMissing()} on a columnar copy of the book
+   */
+  @Benchmark
+  public List<Contact> searchMissingColumnar() {
+    return columnar.search("zqx", searchFilter);
+  }
+
+  /**
+   * {@link #searchCommon()} on an off-heap copy of the book
+   */
+  @Benchmark
+  public List<Contact> searchCommonOffHeap() {
+    return offHeap.search("12", searchFilter);
+  }
+
+  /**
+   * {@link #searchMissing()} on an off-heap copy of the book
+   */
+  @Benchmark
+  public List<Contact> searchMissingOffHeap() {
+    return offHeap.search("zqx", searchFilter);
+  }
+}
@@ -1,20 +1,33 @@
 package addressBook;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -46,7 +59,9 @@ import org.xml.sax.SAXException;
  * }
  * </pre>
  * 
- * This class is not thread safe and was not designed to be inherited from.
+ * An AddressBook created with {@link #createEmpty()} is not thread safe. One
+ * created with {@link #createConcurrent()} may be shared between threads. This
+ * class was not designed to be inherited from.
  * 
  * @author ck1456@nyu.edu
  * 
@@ -58,11 +73,74 @@ public final class AddressBook {
    * An AddressBook cannot be publicly instantiated. Use the static factory
    * method {@link #createEmpty()} to create a new empty AddressBook
    */
-  private AddressBook() {
-    // No-op
+  private AddressBook(boolean concurrent) {
+    this.concurrent = concurrent;
+    contacts = ContactCollections.newSet(concurrent);
   }
 
-  private final Set<Contact> contacts = new HashSet<Contact>();
+  // Whether the AddressBook may be used from several threads
+  private final boolean concurrent;
+
+  // Only replaced by batch operations holding the write lock, with a set
+  // that already holds the result of the batch
+  private volatile Set<Contact> contacts;
+
+  // Serializes all modifications of the contacts and derived state. Readers
+  // never take this lock.
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  // Derived state that is kept in sync with the contacts; only accessed while
+  // holding the write lock
+  private final List<IContactObserver> observers =
+      new ArrayList<IContactObserver>();
+
+  // Forwards changes of individual contacts to the observers
+  private final IContactListener changeListener = new IContactListener() {
+    @Override
+    public void contactChanged(Contact contact, SearchField field) {
+      writeLock.lock();
+      try {
+        for (IContactObserver observer : observers) {
+          observer.contactChanged(contact, field);
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    }
+  };
+
+  private ContactJournal journal;
+
+  private volatile TrigramIndex substringIndex;
+
+  // Recent search results, or null unless enabled
+  private volatile SearchCache searchCache;
+
+  // Created on first use, then kept up to date
+  private volatile NameIndex nameIndex;
+
+  // Created on first use, then kept up to date
+  private volatile KeyIndex keyIndex;
+
+  // Created by the first call to snapshot(), then kept up to date
+  private volatile SnapshotIndex snapshotIndex;
+
+  // The result of getAllContacts, valid while the name index is unchanged
+  private volatile SortedSnapshot allContacts;
+
+  /**
+   * A list of all contacts together with the name index modification count
+   * it was built at
+   */
+  private static final class SortedSnapshot {
+    final List<Contact> contacts;
+    final int modCount;
+
+    SortedSnapshot(List<Contact> contacts, int modCount) {
+      this.contacts = contacts;
+      this.modCount = modCount;
+    }
+  }
 
   /**
    * Creates a new instance of an AddressBook that is initially empty
@@ -70,7 +148,27 @@ public final class AddressBook {
    * @return a new AddressBook with no Contact records
    */
   public static AddressBook createEmpty() {
-    return new AddressBook();
+    return new AddressBook(false);
+  }
+
+  /**
+   * Creates a new, initially empty AddressBook that can safely be shared by
+   * many threads. It has the same API as any other AddressBook, but
+   * modifications ({@code add}, {@code remove} and changes to the fields of
+   * its contacts) are serialized by a lock, while searches and
+   * {@code getAllContacts} never block: the contacts and all indexes are held
+   * in concurrent collections that are read without locking. Reads are
+   * weakly consistent, i.e. a search running at the same time as a
+   * modification may or may not observe it. Single threaded use is somewhat
+   * slower than with an AddressBook created by {@link #createEmpty()}.
+   * 
+   * @return a new thread safe AddressBook with no Contact records
+   */
+  public static AddressBook createConcurrent() {
+    AddressBook addressBook = new AddressBook(true);
+    // Create the name index eagerly so that readers never have to
+    addressBook.nameIndex();
+    return addressBook;
   }
 
   /**
@@ -79,9 +177,26 @@ public final class AddressBook {
    * 
    * @param contact
    *          a Contact record to store in the AddressBook
+   * @throws IllegalArgumentException
+   *           if unique email addresses or phone numbers are required (see
+   *           {@link #setUniqueEmailAddresses(boolean)}) and another contact
+   *           already has the email address or phone number of the contact
    */
   public void add(Contact contact) {
-    contacts.add(contact);
+    writeLock.lock();
+    try {
+      if (keyIndex != null && !contacts.contains(contact)) {
+        keyIndex.checkUnique(contact);
+      }
+      if (contacts.add(contact) && !observers.isEmpty()) {
+        contact.addListener(changeListener);
+        for (IContactObserver observer : observers) {
+          observer.contactAdded(contact);
+        }
+      }
+    } finally {
+      writeLock.unlock();
+    }
   }
 
   /**
@@ -92,7 +207,223 @@ public final class AddressBook {
    *          the Contact record to remove
    */
   public void remove(Contact contact) {
-    contacts.remove(contact);
+    writeLock.lock();
+    try {
+      if (contacts.remove(contact) && !observers.isEmpty()) {
+        contact.removeListener(changeListener);
+        for (IContactObserver observer : observers) {
+          observer.contactRemoved(contact);
+        }
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Adds many contacts to the AddressBook at once. The result is the same as
+   * calling {@link #add(Contact)} for each of them, but indexes and sort
+   * orders are brought up to date once for the whole batch. If the batch is
+   * larger than the AddressBook, the contacts are collected in a new set sized
+   * for the result, which then replaces the current one. Contacts that are
+   * already in the AddressBook are ignored.
+   * 
+   * A snapshot (see {@link #snapshot()}) always contains either none or all of
+   * the batch, so threads that need to see batches atomically should read
+   * snapshots; searches of an AddressBook created with
+   * {@link #createConcurrent()} remain weakly consistent.
+   * 
+   * @param newContacts
+   *          the Contact records to store in the AddressBook
+   * @throws IllegalArgumentException
+   *           if the collection or one of its contacts is null, or if unique
+   *           email addresses or phone numbers are required and the batch
+   *           would violate this; the AddressBook is not modified in that case
+   */
+  public void addAll(Collection<? extends Contact> newContacts) {
+    checkBatch(newContacts);
+    writeLock.lock();
+    try {
+      List<Contact> added = new ArrayList<Contact>(newContacts.size());
+      Set<Contact> distinct = new HashSet<Contact>();
+      for (Contact c : newContacts) {
+        if (!contacts.contains(c) && distinct.add(c)) {
+          added.add(c);
+        }
+      }
+      if (keyIndex != null) {
+        keyIndex.checkUnique(added, Collections.<Contact> emptySet());
+      }
+      applyBatch(added, Collections.<Contact> emptyList());
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Removes many contacts from the AddressBook at once. The result is the
+   * same as calling {@link #remove(Contact)} for each of them, but indexes and
+   * sort orders are brought up to date once for the whole batch, and a
+   * snapshot contains either none or all of the removals. Contacts that are
+   * not in the AddressBook are ignored.
+   * 
+   * @param oldContacts
+   *          the Contact records to remove
+   * @throws IllegalArgumentException
+   *           if the collection is null
+   */
+  public void removeAll(Collection<? extends Contact> oldContacts) {
+    if (oldContacts == null) {
+      throw new IllegalArgumentException(
+          "contacts are not allowed to be null");
+    }
+    writeLock.lock();
+    try {
+      List<Contact> removed = new ArrayList<Contact>();
+      Set<Contact> distinct = new HashSet<Contact>();
+      for (Contact c : oldContacts) {
+        if (c != null && contacts.contains(c) && distinct.add(c)) {
+          removed.add(c);
+        }
+      }
+      applyBatch(Collections.<Contact> emptyList(), removed);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Replaces the contents of the AddressBook with a collection of contacts,
+   * e.g. the result of a synchronization. Contacts that are in both the
+   * AddressBook and the collection stay in the AddressBook (and its indexes)
+   * untouched; the others are removed or added as one batch, as by
+   * {@link #removeAll(Collection)} and {@link #addAll(Collection)}, and a
+   * snapshot contains either none or all of the changes.
+   * 
+   * @param newContacts
+   *          the Contact records the AddressBook should hold
+   * @throws IllegalArgumentException
+   *           if the collection or one of its contacts is null, or if unique
+   *           email addresses or phone numbers are required and the
+   *           collection violates this; the AddressBook is not modified in
+   *           that case
+   */
+  public void replaceAll(Collection<? extends Contact> newContacts) {
+    checkBatch(newContacts);
+    writeLock.lock();
+    try {
+      Set<Contact> kept = new HashSet<Contact>(newContacts);
+      List<Contact> added = new ArrayList<Contact>();
+      Set<Contact> distinct = new HashSet<Contact>();
+      for (Contact c : newContacts) {
+        if (!contacts.contains(c) && distinct.add(c)) {
+          added.add(c);
+        }
+      }
+      Set<Contact> removed = new HashSet<Contact>();
+      for (Contact c : contacts) {
+        if (!kept.contains(c)) {
+          removed.add(c);
+        }
+      }
+      if (keyIndex != null) {
+        keyIndex.checkUnique(added, removed);
+      }
+      applyBatch(added, removed);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private static void checkBatch(Collection<? extends Contact> batch) {
+    if (batch == null) {
+      throw new IllegalArgumentException(
+          "contacts are not allowed to be null");
+    }
+    for (Contact c : batch) {
+      if (c == null) {
+        throw new IllegalArgumentException(
+            "contacts are not allowed to contain null");
+      }
+    }
+  }
+
+  /**
+   * Adds and removes distinct contacts and notifies the observers once. A
+   * batch that changes many contacts builds a new set and publishes it in one
+   * step. The caller must hold the write lock.
+   */
+  private void applyBatch(Collection<Contact> added,
+      Collection<Contact> removed) {
+    if (added.isEmpty() && removed.isEmpty()) {
+      return;
+    }
+    Set<Contact> current = contacts;
+    if (added.size() + removed.size() > current.size()) {
+      Set<Contact> result = ContactCollections.newSet(concurrent,
+          current.size() + added.size() - removed.size());
+      if (removed.isEmpty()) {
+        result.addAll(current);
+      } else {
+        Set<Contact> removedSet = new HashSet<Contact>(removed);
+        for (Contact c : current) {
+          if (!removedSet.contains(c)) {
+            result.add(c);
+          }
+        }
+      }
+      result.addAll(added);
+      contacts = result;
+      if (journal != null) {
+        journal.attach(result);
+      }
+    } else {
+      // Set.removeAll iterates the set and calls contains on the argument
+      // when the argument is as large as the set, which is slow for a list
+      for (Contact c : removed) {
+        current.remove(c);
+      }
+      current.addAll(added);
+    }
+
+    if (!observers.isEmpty()) {
+      for (Contact c : removed) {
+        c.removeListener(changeListener);
+      }
+      for (Contact c : added) {
+        c.addListener(changeListener);
+      }
+      for (IContactObserver observer : observers) {
+        observer.batchApplied(added, removed);
+      }
+    }
+  }
+
+  /**
+   * Starts keeping an observer in sync with this AddressBook. Contacts are
+   * only watched for changes while at least one observer is registered. The
+   * caller must hold the write lock.
+   */
+  private void addObserver(IContactObserver observer) {
+    if (observers.isEmpty()) {
+      for (Contact c : contacts) {
+        c.addListener(changeListener);
+      }
+    }
+    observers.add(observer);
+  }
+
+  /**
+   * Stops keeping an observer in sync with this AddressBook. The caller must
+   * hold the write lock.
+   */
+  private void removeObserver(IContactObserver observer) {
+    observers.remove(observer);
+    if (observers.isEmpty()) {
+      for (Contact c : contacts) {
+        c.removeListener(changeListener);
+      }
+    }
   }
 
   /**
@@ -122,25 +453,583 @@ public final class AddressBook {
    *         text in the specified fields
    */
   public List<Contact> search(String query, ISearchFilter filter) {
+    SearchCache cache = searchCache;
+    long version = 0;
+    if (cache != null) {
+      List<Contact> cached = cache.get(query, filter);
+      if (cached != null) {
+        return cached;
+      }
+      version = cache.version();
+    }
+
+    Collection<Contact> candidates = QueryPlanner.plan(query, filter,
+        contacts, substringIndex).candidates();
+
     List<Contact> results = new ArrayList<Contact>();
-    for (Contact contact : contacts) {
+    for (Contact contact : candidates) {
       if (filter.isMatch(query, contact)) {
         results.add(contact);
       }
     }
+    if (cache != null) {
+      cache.put(query, filter, results, version);
+    }
     return results;
   }
 
+  /**
+   * Searches like {@link #search(String, ISearchFilter)}, but finds the
+   * matches lazily instead of collecting them in a list. This is equivalent
+   * to {@code searchIterator(query, filter, Integer.MAX_VALUE)}.
+   * 
+   * @param query
+   *          substring to search for
+   * @param filter
+   * @return an iterator over the contact records that contain the query text
+   *         in the specified fields
+   */
+  public Iterator<Contact> searchIterator(String query, ISearchFilter filter) {
+    return searchIterator(query, filter, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Searches like {@link #search(String, ISearchFilter)}, but finds the
+   * matches lazily instead of collecting them in a list: the filter is only
+   * evaluated as the iterator is advanced, and never again once it has
+   * returned {@code limit} matches. This avoids building a large list when a
+   * broad query matches many contacts but only the first few are needed, or
+   * when results are streamed out one at a time. Matches are returned in the
+   * same order as by {@code search}.
+   * 
+   * The search cache (see {@link #enableSearchCache(int)}) is not used. The
+   * AddressBook must not be modified while the iterator is in use unless it
+   * was created with {@link #createConcurrent()}, in which case the iterator
+   * may or may not reflect the modifications.
+   * 
+   * @param query
+   *          substring to search for
+   * @param filter
+   * @param limit
+   *          the maximum number of contacts to return
+   * @return an iterator over at most {@code limit} contact records that
+   *         contain the query text in the specified fields; it does not
+   *         support {@code remove}
+   */
+  public Iterator<Contact> searchIterator(String query, ISearchFilter filter,
+      int limit) {
+    if (filter == null) {
+      throw new IllegalArgumentException("filter is not allowed to be null");
+    }
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit must not be negative");
+    }
+    Collection<Contact> candidates = QueryPlanner.plan(query, filter,
+        contacts, substringIndex).candidates();
+    return new SearchIterator(candidates.iterator(), query, filter, limit);
+  }
+
+  /**
+   * Describes how {@link #search(String, ISearchFilter)} would find the
+   * results of a search: either by checking every contact with the filter,
+   * or by looking up candidates in the substring index (see
+   * {@link #enableSubstringIndex()}) and checking only those. Lookups are
+   * possible for the predefined filters in {@link SearchFilters} and for
+   * compound filters built from them with {@code and}, {@code or} and
+   * {@code withQuery}. The description includes the estimated number of
+   * candidates and the estimated cost of each step, in units of testing one
+   * field of one contact. Its exact format is subject to change.
+   * 
+   * @param query
+   *          substring to search for
+   * @param filter
+   * @return a multi-line, human readable description of the search plan
+   */
+  public String explain(String query, ISearchFilter filter) {
+    return QueryPlanner.explain(query, filter, contacts, substringIndex);
+  }
+
+  /**
+   * Searches like {@link #search(String, ISearchFilter)}, but evaluates the
+   * filter for many contacts at once on a shared fork-join pool with one
+   * thread per processor. This is equivalent to
+   * {@code searchParallel(query, filter, pool)} with that pool.
+   *
+   * @param query
+   *          substring to search for
+   * @param filter
+   * @return a (possibly empty) list of contact records that contain the query
+   *         text in the specified fields, in the order of
+   *         {@link #getAllContacts()}
+   */
+  public List<Contact> searchParallel(String query, ISearchFilter filter) {
+    return searchParallel(query, filter, DefaultPool.INSTANCE);
+  }
+
+  /**
+   * Searches like {@link #search(String, ISearchFilter)}, but splits the
+   * contacts into ranges whose filters are evaluated in parallel by the
+   * supplied fork-join pool. This pays off for large AddressBooks and for
+   * expensive custom filters; AddressBooks with fewer than 1024 contacts (or
+   * queries that the substring index narrows down to fewer candidates) are
+   * searched on the calling thread. When the substring index narrows a query
+   * down, only the candidates are searched and the matches are then sorted.
+   * The filter must be safe to call from several threads at once.
+   *
+   * Unlike {@code search}, the results are always in the order of
+   * {@link #getAllContacts()}, independent of the number of threads. The
+   * AddressBook must not be modified during the search unless it was created
+   * with {@link #createConcurrent()}.
+   *
+   * @param query
+   *          substring to search for
+   * @param filter
+   * @param pool
+   *          the pool to evaluate the filter on
+   * @return a (possibly empty) list of contact records that contain the query
+   *         text in the specified fields, in the order of
+   *         {@link #getAllContacts()}
+   */
+  public List<Contact> searchParallel(String query, ISearchFilter filter,
+      ForkJoinPool pool) {
+    if (pool == null) {
+      throw new IllegalArgumentException("pool is not allowed to be null");
+    }
+    QueryPlan plan = QueryPlanner.plan(query, filter, contacts,
+        substringIndex);
+    if (plan.isScan()) {
+      return ParallelSearch.search(getAllContacts(), query, filter, pool);
+    }
+    // Only the candidates are searched, and only the matches are sorted
+    List<Contact> results = ParallelSearch.search(new ArrayList<Contact>(
+        plan.candidates()), query, filter, pool);
+    return nameIndex().sortByLastName(results);
+  }
+
+  /**
+   * Finds the contacts whose first or last name starts with the supplied
+   * prefix, e.g. for type-ahead lookups. Unlike {@code search}, which matches
+   * text anywhere in a field, this only matches the start of a name and
+   * returns the first matches in {@link Contact#SORT_BY_LAST_NAME} order.
+   * The matches are read from a sorted name index, so the time taken depends
+   * on the number of results rather than the size of the AddressBook. The
+   * index is built on the first call and maintained from then on.
+   * 
+   * @param prefix
+   *          the start of a first or last name (case sensitive); an empty
+   *          prefix matches every contact
+   * @param limit
+   *          the maximum number of contacts to return
+   * @return a (possibly empty) list of at most {@code limit} contacts
+   */
+  public List<Contact> searchByNamePrefix(String prefix, int limit) {
+    if (prefix == null) {
+      throw new IllegalArgumentException("prefix is not allowed to be null");
+    }
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit must not be negative");
+    }
+    return nameIndex().findByPrefix(prefix, limit);
+  }
+
+  /**
+   * Finds the contacts with an email address. Unlike searching with
+   * {@link SearchFilters#EmailAddress}, this only finds exact matches
+   * (ignoring case and surrounding white space) and does not scan the
+   * contacts: the email addresses are kept in a hash index that is built on
+   * the first call and maintained from then on.
+   * 
+   * @param emailAddress
+   *          the email address to look for
+   * @return a (possibly empty) list of the contacts with the email address
+   */
+  public List<Contact> findByEmailAddress(String emailAddress) {
+    if (emailAddress == null) {
+      throw new IllegalArgumentException(
+          "emailAddress is not allowed to be null");
+    }
+    return keyIndex().findByEmailAddress(emailAddress);
+  }
+
+  /**
+   * Finds the contacts with a phone number, compared by
+   * {@link PhoneNumber#asString()}. The phone numbers are kept in a hash
+   * index that is built on the first call and maintained from then on.
+   * 
+   * @param phoneNumber
+   *          the phone number to look for
+   * @return a (possibly empty) list of the contacts with the phone number
+   */
+  public List<Contact> findByPhoneNumber(PhoneNumber phoneNumber) {
+    if (phoneNumber == null) {
+      throw new IllegalArgumentException(
+          "phoneNumber is not allowed to be null");
+    }
+    return keyIndex().findByPhoneNumber(phoneNumber);
+  }
+
+  /**
+   * Finds the contacts with a phone number given as text, in any format
+   * accepted by {@link PhoneNumber#createNew(String)}.
+   * 
+   * @param phoneNumber
+   *          the text of the phone number to look for
+   * @return a (possibly empty) list of the contacts with the phone number;
+   *         empty if the text is not a phone number
+   * @see #findByPhoneNumber(PhoneNumber)
+   */
+  public List<Contact> findByPhoneNumber(String phoneNumber) {
+    if (phoneNumber == null) {
+      throw new IllegalArgumentException(
+          "phoneNumber is not allowed to be null");
+    }
+    PhoneNumberParseResult parsed = PhoneNumberParser.parse(phoneNumber,
+        PhoneNumber.DEFAULT_REGION);
+    if (!parsed.isSuccess()) {
+      return new ArrayList<Contact>();
+    }
+    return keyIndex().findByPhoneNumber(parsed.getPhoneNumber());
+  }
+
+  /**
+   * Sets whether {@link #add(Contact)} rejects contacts whose email address
+   * (compared like {@link #findByEmailAddress(String)}) is already used by
+   * another contact of the AddressBook. Only {@code add} is checked: changing
+   * the email address of a contact that is already in the AddressBook is
+   * always allowed.
+   * 
+   * @param unique
+   *          true to require unique email addresses
+   * @throws IllegalStateException
+   *           if uniqueness is required while several contacts already share
+   *           an email address
+   */
+  public void setUniqueEmailAddresses(boolean unique) {
+    writeLock.lock();
+    try {
+      keyIndex().setUniqueEmailAddresses(unique);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Sets whether {@link #add(Contact)} rejects contacts whose phone number
+   * (compared like {@link #findByPhoneNumber(PhoneNumber)}) is already used by
+   * another contact of the AddressBook. Only {@code add} is checked.
+   * 
+   * @param unique
+   *          true to require unique phone numbers
+   * @throws IllegalStateException
+   *           if uniqueness is required while several contacts already share
+   *           a phone number
+   */
+  public void setUniquePhoneNumbers(boolean unique) {
+    writeLock.lock();
+    try {
+      keyIndex().setUniquePhoneNumbers(unique);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Gets one page of the contacts in name order, e.g. for showing a long list
+   * a screen at a time. The first page is fetched with a null cursor, and each
+   * page provides the cursor of the next one. Pages are read from the sorted
+   * name index (see {@link #searchByNamePrefix(String, int)}), so fetching a
+   * page takes time proportional to the page size rather than the size of the
+   * AddressBook, wherever the page is.
+   * 
+   * A cursor refers to the contact that starts the next page, not to a
+   * number of contacts, so adding or removing other contacts between two
+   * calls neither repeats nor skips contacts: contacts added before the
+   * cursor are not seen, and contacts added after it are. If the contact
+   * that starts the next page is removed, the page starts with the contact
+   * that followed it. Contacts with identical names are returned in the
+   * order they were added. Contacts with a null last name are ordered as if
+   * it was empty.
+   * 
+   * @param order
+   *          either {@link Contact#SORT_BY_LAST_NAME} or
+   *          {@link Contact#SORT_BY_FIRST_NAME}
+   * @param pageSize
+   *          the maximum number of contacts per page
+   * @param cursor
+   *          null for the first page, or the cursor returned with the previous
+   *          page
+   * @return the requested page
+   * @throws IllegalArgumentException
+   *           if the order is not supported, or the cursor was not returned
+   *           for this order
+   */
+  public ContactPage getPage(Comparator<Contact> order, int pageSize,
+      String cursor) {
+    boolean byFirstName;
+    if (order == Contact.SORT_BY_LAST_NAME) {
+      byFirstName = false;
+    } else if (order == Contact.SORT_BY_FIRST_NAME) {
+      byFirstName = true;
+    } else {
+      throw new IllegalArgumentException(
+          "order must be Contact.SORT_BY_LAST_NAME or "
+              + "Contact.SORT_BY_FIRST_NAME");
+    }
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("pageSize must be positive");
+    }
+    NameIndex.Position start = null;
+    if (cursor != null) {
+      start = NameIndex.Position.parse(cursor);
+      if (start.byFirstName != byFirstName) {
+        throw new IllegalArgumentException(
+            "The cursor was created for a different order");
+      }
+    }
+    return nameIndex().page(byFirstName, start, pageSize);
+  }
+
+  private KeyIndex keyIndex() {
+    KeyIndex index = keyIndex;
+    if (index == null) {
+      writeLock.lock();
+      try {
+        index = keyIndex;
+        if (index == null) {
+          index = new KeyIndex(contacts, concurrent);
+          addObserver(index);
+          keyIndex = index;
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    }
+    return index;
+  }
+
+  private NameIndex nameIndex() {
+    NameIndex index = nameIndex;
+    if (index == null) {
+      writeLock.lock();
+      try {
+        index = nameIndex;
+        if (index == null) {
+          index = new NameIndex(contacts, concurrent);
+          addObserver(index);
+          nameIndex = index;
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Builds an index of the three character substrings of every field so that
+   * {@code search} can avoid scanning all contacts. The index is used for
+   * queries of at least three characters with any of the predefined filters
+   * in {@link SearchFilters}; results are the same as without the index. The
+   * index is kept up to date as contacts are added, removed or modified, at
+   * the cost of additional memory and slower updates. Calling this method
+   * when the index is already enabled has no effect.
+   */
+  public void enableSubstringIndex() {
+    writeLock.lock();
+    try {
+      if (substringIndex == null) {
+        TrigramIndex index = new TrigramIndex(contacts, concurrent);
+        addObserver(index);
+        substringIndex = index;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Discards the index built by {@link #enableSubstringIndex()}. Subsequent
+   * searches scan all contacts.
+   */
+  public void disableSubstringIndex() {
+    writeLock.lock();
+    try {
+      if (substringIndex != null) {
+        removeObserver(substringIndex);
+        substringIndex = null;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Keeps the results of recent searches so that repeating a search with the
+   * same query and filter does not evaluate the filter again. This is
+   * equivalent to {@code enableSearchCache(maxEntries, Long.MAX_VALUE)}.
+   * 
+   * @param maxEntries
+   *          the maximum number of results to keep
+   */
+  public void enableSearchCache(int maxEntries) {
+    enableSearchCache(maxEntries, Long.MAX_VALUE);
+  }
+
+  /**
+   * Keeps the results of recent searches with
+   * {@link #search(String, ISearchFilter)} so that repeating a search with the
+   * same query and an equal filter does not evaluate the filter again. When
+   * either limit is exceeded, the least recently used results are dropped.
+   * The memory limit applies to an estimate of the memory held by the cache
+   * itself, excluding the contacts, which are held by the AddressBook anyway.
+   * 
+   * Results are kept up to date precisely: adding, removing or modifying a
+   * contact only drops the results it could change, i.e. those that hold the
+   * contact and those whose filter matches it. This assumes that a filter's
+   * result depends on nothing but the query and the contact. Filters are
+   * compared with {@code equals}. The predefined {@link SearchFilters}, and
+   * filters combined from them with its methods, compare by value, so they
+   * may be recreated for each search; other {@link ISearchFilter} classes
+   * should override {@code equals} and {@code hashCode}, or be reused.
+   * Every search returns a new list.
+   * 
+   * Enabling the cache replaces any cache enabled before, together with its
+   * statistics.
+   * 
+   * @param maxEntries
+   *          the maximum number of results to keep
+   * @param maxBytes
+   *          the maximum estimated memory to use, in bytes
+   * @see #getSearchCacheStats()
+   */
+  public void enableSearchCache(int maxEntries, long maxBytes) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be positive");
+    }
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    writeLock.lock();
+    try {
+      if (searchCache != null) {
+        removeObserver(searchCache);
+      }
+      SearchCache cache = new SearchCache(maxEntries, maxBytes);
+      addObserver(cache);
+      searchCache = cache;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Discards the cache enabled by {@link #enableSearchCache(int, long)}.
+   * Subsequent searches evaluate the filter again.
+   */
+  public void disableSearchCache() {
+    writeLock.lock();
+    try {
+      if (searchCache != null) {
+        removeObserver(searchCache);
+        searchCache = null;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Gets the hit, miss, eviction and invalidation counts of the search cache
+   * 
+   * @return the current statistics, or null if the cache is not enabled
+   * @see #enableSearchCache(int, long)
+   */
+  public SearchCacheStats getSearchCacheStats() {
+    SearchCache cache = searchCache;
+    return (cache == null ? null : cache.stats());
+  }
+
+  /**
+   * Estimates the heap memory used by the contacts of this AddressBook, and
+   * how much of it is saved by sharing repeated field values. Short values
+   * that typically repeat across records (names, cities, states, countries,
+   * postal codes and the second address line) are shared through a bounded
+   * pool as they are set or loaded. This visits every contact.
+   * 
+   * @return a report of the estimated memory footprint
+   */
+  public FootprintReport getFootprintReport() {
+    return FootprintReport.of(contacts);
+  }
+
   /**
    * Gets an unmodifiable view of all contact records in the AddressBook. By
-   * default, this list is sorted by <last name>, <first name>
+   * default, this list is sorted by <last name>, <first name>. Contacts are
+   * kept in this order as they are added, removed or renamed, so the list is
+   * not sorted on each call; the same list is returned until the AddressBook
+   * is next modified. The list is a snapshot and does not reflect later
+   * changes to the AddressBook.
    * 
    * @return an unmodifiable List of contacts in the AddressBook
    */
   public List<Contact> getAllContacts() {
-    List<Contact> contactListView = new ArrayList<Contact>(contacts);
-    Collections.sort(contactListView, Contact.SORT_BY_LAST_NAME);
-    return Collections.unmodifiableList(contactListView);
+    NameIndex index = nameIndex();
+    SortedSnapshot snapshot = allContacts;
+    int modCount = index.modCount();
+    if (snapshot == null || snapshot.modCount != modCount) {
+      // If the index is modified while the list is built, the count read
+      // above is already stale and the list is rebuilt on the next call
+      snapshot = new SortedSnapshot(Collections.unmodifiableList(index
+          .sortedByLastName()), modCount);
+      allContacts = snapshot;
+    }
+    return snapshot.contacts;
+  }
+
+  /**
+   * Takes an immutable, point-in-time view of this AddressBook. The snapshot
+   * is unaffected by later modifications, so {@code search},
+   * {@code getAllContacts} and {@code save} can be run against one consistent
+   * state while other threads keep modifying the AddressBook.
+   * 
+   * Snapshots are built on a persistent tree of read-only contact copies that
+   * is updated as the AddressBook is modified, sharing everything that did not
+   * change. Taking a snapshot is therefore a constant time operation, and a
+   * snapshot only holds on to the parts of the tree that have been replaced
+   * since it was taken. The tree is built on the first call and maintained
+   * from then on, which costs one copy of each contact and makes
+   * modifications slightly slower.
+   * 
+   * @return a snapshot of the current contents of the AddressBook
+   */
+  public AddressBookSnapshot snapshot() {
+    SnapshotIndex index = snapshotIndex;
+    if (index == null) {
+      writeLock.lock();
+      try {
+        index = snapshotIndex;
+        if (index == null) {
+          index = new SnapshotIndex(contacts);
+          addObserver(index);
+          snapshotIndex = index;
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    }
+    return index.current();
+  }
+
+  /**
+   * Copies the contacts of this AddressBook into a read-only book that keeps
+   * each field in its own column, for workloads that mostly scan. The copy is
+   * in the order of {@link #getAllContacts()} and is unaffected by later
+   * modifications of this AddressBook.
+   * 
+   * @return a columnar copy of the current contents of the AddressBook
+   */
+  public ColumnarAddressBook toColumnar() {
+    return new ColumnarAddressBook(getAllContacts());
   }
 
   /**
@@ -210,6 +1099,60 @@ public final class AddressBook {
     return addressBook;
   }
 
+  /**
+   * Convenience method to parse an AddressBook from a file using the streaming
+   * loader. This method calls {@link #loadStreaming(InputStream is)}
+   * internally and closes the file when done.
+   * 
+   * @param filePath
+   *          relative or absolute path to an xml file produced by serializing
+   *          an AddressBook
+   * @return an AddressBook in the same state prior to serialization
+   * @throws FileNotFoundException
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static AddressBook loadStreaming(String filePath)
+      throws FileNotFoundException, XMLStreamException, IOException {
+    InputStream input = new FileInputStream(filePath);
+    try {
+      return loadStreaming(input);
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Loads an AddressBook from an arbitrary InputStream source using a pull
+   * parser. The format is the same one read by {@link #load(InputStream is)},
+   * but contacts are deserialized one at a time as they are encountered, so
+   * memory use does not depend on the size of the document beyond the
+   * resulting AddressBook itself.
+   * 
+   * @param is
+   *          the stream to load from
+   * @return a new AddressBook
+   * @throws XMLStreamException
+   */
+  public static AddressBook loadStreaming(InputStream is)
+      throws XMLStreamException {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    XMLStreamReader reader = factory.createXMLStreamReader(is);
+    AddressBook addressBook = createEmpty();
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT
+            && reader.getLocalName().equals(Contact.XML_NAME)) {
+          addressBook.add(Contact.fromXml(reader));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return addressBook;
+  }
+
   /**
    * Convenience method for serializing an AddressBook to a file. This method
    * calls {@code save(OutputStream os)} internally.
@@ -228,7 +1171,7 @@ public final class AddressBook {
     save(os);
   }
 
-  private static final String XML_NAME = "AddressBook";
+  static final String XML_NAME = "AddressBook";
 
   /**
    * Stores an AddressBook representation into an arbitrary OutputStream. This
@@ -262,4 +1205,275 @@ public final class AddressBook {
 
     transformer.transform(new DOMSource(doc), new StreamResult(os));
   }
+
+  /**
+   * Convenience method for serializing an AddressBook to a file using the
+   * streaming writer. This method calls {@code saveStreaming(OutputStream os)}
+   * internally and closes the file when done.
+   * 
+   * @param filePath
+   *          relative or absolute path to save the AddressBook to
+   * @throws FileNotFoundException
+   * @throws IOException
+   */
+  public void saveStreaming(String filePath) throws FileNotFoundException,
+      IOException {
+    OutputStream os = new FileOutputStream(filePath);
+    try {
+      saveStreaming(os);
+    } finally {
+      os.close();
+    }
+  }
+
+  /**
+   * Stores an AddressBook representation into an arbitrary OutputStream
+   * without building an intermediate DOM. The bytes written are identical to
+   * those written by {@link #save(OutputStream os)}, and the result can be
+   * read with either {@code load} or {@code loadStreaming}. Each contact is
+   * written directly to the stream in the order of {@link #getAllContacts()}
+   * through a small, fixed size buffer. The stream is flushed but not closed.
+   * 
+   * @param os
+   *          the OutputStream to write into
+   * @throws IOException
+   */
+  public void saveStreaming(OutputStream os) throws IOException {
+    List<Contact> orderedContacts;
+    List<Contact> backingOrder;
+    writeLock.lock();
+    try {
+      orderedContacts = getAllContacts();
+      backingOrder = new ArrayList<Contact>(contacts);
+    } finally {
+      writeLock.unlock();
+    }
+    Set<Contact> collapsed = collapsedByName(orderedContacts, backingOrder);
+
+    XmlWriter writer = new XmlWriter(os);
+    writer.startElement(XML_NAME);
+    for (Contact c : orderedContacts) {
+      if (!collapsed.contains(c)) {
+        c.writeXml(writer);
+      }
+    }
+    writer.endElement(XML_NAME);
+    writer.flush();
+  }
+
+  /**
+   * save() collapses contacts with identical names, keeping the one that comes
+   * first when iterating the backing set. This finds the contacts it drops.
+   * Both lists must be copies taken at the same time.
+   */
+  private static Set<Contact> collapsedByName(List<Contact> orderedContacts,
+      List<Contact> backingOrder) {
+    Set<Contact> duplicates = new HashSet<Contact>();
+    for (int i = 1; i < orderedContacts.size(); i++) {
+      Contact previous = orderedContacts.get(i - 1);
+      Contact c = orderedContacts.get(i);
+      if (Contact.SORT_BY_LAST_NAME.compare(previous, c) == 0) {
+        duplicates.add(previous);
+        duplicates.add(c);
+      }
+    }
+    if (duplicates.isEmpty()) {
+      return duplicates;
+    }
+
+    Set<Contact> kept = new TreeSet<Contact>(Contact.SORT_BY_LAST_NAME);
+    Set<Contact> collapsed = new HashSet<Contact>();
+    for (Contact c : backingOrder) {
+      if (duplicates.contains(c) && !kept.add(c)) {
+        collapsed.add(c);
+      }
+    }
+    return collapsed;
+  }
+
+  /**
+   * Convenience method for storing an AddressBook to a file in the compact
+   * binary snapshot format. This method calls
+   * {@code saveBinary(OutputStream os)} internally and closes the file when
+   * done.
+   * 
+   * @param filePath
+   *          relative or absolute path to save the AddressBook to
+   * @throws FileNotFoundException
+   * @throws IOException
+   */
+  public void saveBinary(String filePath) throws FileNotFoundException,
+      IOException {
+    OutputStream os = new FileOutputStream(filePath);
+    try {
+      saveBinary(os);
+    } finally {
+      os.close();
+    }
+  }
+
+  /**
+   * Stores an AddressBook into an arbitrary OutputStream using a compact,
+   * versioned binary format. Repeated strings are stored once and phone
+   * numbers are stored as numbers rather than text, so the result is both
+   * smaller and much faster to load than the XML written by
+   * {@link #save(OutputStream os)}. The contacts written are those of the
+   * AddressBook when the method is called. The stream is flushed but not
+   * closed.
+   * 
+   * @param os
+   *          the OutputStream to write into
+   * @throws IOException
+   */
+  public void saveBinary(OutputStream os) throws IOException {
+    List<Contact> copy;
+    writeLock.lock();
+    try {
+      copy = new ArrayList<Contact>(contacts);
+    } finally {
+      writeLock.unlock();
+    }
+    BinarySnapshot.write(copy, os);
+  }
+
+  /**
+   * Loads an AddressBook from a file written by {@link #saveBinary(String)}.
+   * The file is memory-mapped rather than read through a stream.
+   * 
+   * @param filePath
+   *          relative or absolute path to a binary AddressBook snapshot
+   * @return an AddressBook in the same state prior to serialization
+   * @throws FileNotFoundException
+   * @throws IOException
+   *           if the file cannot be read or is not a valid snapshot
+   */
+  public static AddressBook loadBinary(String filePath)
+      throws FileNotFoundException, IOException {
+    RandomAccessFile file = new RandomAccessFile(filePath, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size());
+      AddressBook addressBook = createEmpty();
+      for (Contact c : BinarySnapshot.read(buffer)) {
+        addressBook.add(c);
+      }
+      return addressBook;
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Converts an xml file produced by {@link #save(String)} into the binary
+   * snapshot format. Contacts are read with the streaming loader.
+   * 
+   * @param xmlFilePath
+   *          path of the xml file to read
+   * @param binaryFilePath
+   *          path of the binary snapshot to write
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static void convertXmlToBinary(String xmlFilePath,
+      String binaryFilePath) throws XMLStreamException, IOException {
+    loadStreaming(xmlFilePath).saveBinary(binaryFilePath);
+  }
+
+  /**
+   * Converts a binary snapshot produced by {@link #saveBinary(String)} into
+   * the xml format. Contacts are written with the streaming writer.
+   * 
+   * @param binaryFilePath
+   *          path of the binary snapshot to read
+   * @param xmlFilePath
+   *          path of the xml file to write
+   * @throws IOException
+   */
+  public static void convertBinaryToXml(String binaryFilePath,
+      String xmlFilePath) throws IOException {
+    loadBinary(binaryFilePath).saveStreaming(xmlFilePath);
+  }
+
+  /**
+   * Loads an AddressBook in journaled mode. The binary snapshot (see
+   * {@link #saveBinary(String)}) is read and the change journal is replayed
+   * over it. Afterwards every {@code add}, {@code remove} and change to a
+   * contact's fields is appended to the journal as a small record instead of
+   * requiring the whole book to be saved again. The journal is compacted into
+   * a new snapshot automatically once it holds more records than the book has
+   * contacts, or explicitly with {@link #compactJournal()}.
+   * 
+   * Neither file needs to exist; a missing snapshot or journal is treated as
+   * empty. A record that was only partially written when the process last
+   * terminated is discarded.
+   * 
+   * @param snapshotPath
+   *          relative or absolute path of the binary snapshot
+   * @param journalPath
+   *          relative or absolute path of the change journal
+   * @return an AddressBook in the state recorded by the snapshot and journal
+   * @throws IOException
+   *           if the files cannot be read or are not valid
+   */
+  public static AddressBook loadJournaled(String snapshotPath,
+      String journalPath) throws IOException {
+    ContactJournal journal = new ContactJournal(new File(snapshotPath),
+        new File(journalPath));
+    AddressBook addressBook = createEmpty();
+    for (Contact c : journal.replay()) {
+      addressBook.add(c);
+    }
+    journal.attach(addressBook.contacts);
+    addressBook.writeLock.lock();
+    try {
+      addressBook.journal = journal;
+      addressBook.addObserver(journal);
+    } finally {
+      addressBook.writeLock.unlock();
+    }
+    return addressBook;
+  }
+
+  /**
+   * Folds the change journal into a new binary snapshot and starts an empty
+   * journal. This only applies to an AddressBook opened with
+   * {@link #loadJournaled(String, String)}.
+   * 
+   * @throws IOException
+   * @throws IllegalStateException
+   *           if the AddressBook is not journaled
+   */
+  public void compactJournal() throws IOException {
+    writeLock.lock();
+    try {
+      if (journal == null) {
+        throw new IllegalStateException("AddressBook is not journaled");
+      }
+      journal.compact();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Closes the change journal of an AddressBook opened with
+   * {@link #loadJournaled(String, String)}. Subsequent changes are no longer
+   * recorded. Calling this method on an AddressBook that is not journaled has
+   * no effect.
+   * 
+   * @throws IOException
+   */
+  public void closeJournal() throws IOException {
+    writeLock.lock();
+    try {
+      if (journal != null) {
+        removeObserver(journal);
+        journal.close();
+        journal = null;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
 }
\ No newline at end of file
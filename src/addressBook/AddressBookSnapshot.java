@@ -0,0 +1,209 @@
+package addressBook;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An immutable, point-in-time view of an {@link AddressBook}, obtained from
+ * {@link AddressBook#snapshot()}. A snapshot keeps the contents the book had
+ * when it was taken while the book continues to be modified, so that several
+ * reads (e.g. a search followed by a save) observe exactly the same contacts.
+ *
+ * The contacts of a snapshot are read-only copies of the contacts in the
+ * AddressBook: their setters, and those of their names and postal addresses,
+ * throw {@link UnsupportedOperationException}. A snapshot may be shared
+ * between threads without synchronization.
+ *
+ * @author ck1456@nyu.edu
+ *
+ * @see AddressBook
+ */
+public final class AddressBookSnapshot {
+
+  private final PersistentTree<SnapshotIndex.Entry> entries;
+
+  private final long version;
+
+  /**
+   * Snapshots are created by an AddressBook
+   */
+  AddressBookSnapshot(PersistentTree<SnapshotIndex.Entry> entries,
+      long version) {
+    this.entries = entries;
+    this.version = version;
+  }
+
+  /**
+   * Gets the version of the AddressBook this snapshot was taken at. Versions
+   * increase with every modification of the AddressBook, so of two snapshots
+   * of the same AddressBook the one with the greater version is more recent,
+   * and two snapshots with the same version have identical contents.
+   *
+   * @return the version of this snapshot
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Gets the number of contacts in this snapshot
+   *
+   * @return the number of contacts
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Gets an unmodifiable list of all contact records in this snapshot, sorted
+   * by <last name>, <first name>. Contacts with identical names are listed in
+   * the order they were added to the AddressBook.
+   *
+   * @return an unmodifiable List of the contacts in this snapshot
+   */
+  public List<Contact> getAllContacts() {
+    return new ContactList(entries);
+  }
+
+  /**
+   * Searches for an arbitrary string in all fields of all contacts of this
+   * snapshot. This is equivalent to
+   * {@code search(query, SearchFilters.AnyField)}
+   *
+   * @param query
+   *          substring to search for
+   * @return a (possibly empty) list of contact records that contain the query
+   *         text in the specified fields
+   */
+  public List<Contact> search(String query) {
+    return search(query, SearchFilters.AnyField);
+  }
+
+  /**
+   * Searches for text in arbitrary fields of all contact records of this
+   * snapshot. Results are in the order of {@link #getAllContacts()}.
+   *
+   * @see SearchFilters
+   * @param query
+   *          substring to search for
+   * @param filter
+   * @return a (possibly empty) list of contact records that contain the query
+   *         text in the specified fields
+   */
+  public List<Contact> search(String query, ISearchFilter filter) {
+    List<Contact> results = new ArrayList<Contact>();
+    for (SnapshotIndex.Entry entry : entries) {
+      if (filter.isMatch(query, entry.contact)) {
+        results.add(entry.contact);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Convenience method for serializing this snapshot to a file. This method
+   * calls {@code save(OutputStream os)} internally and closes the file when
+   * done.
+   *
+   * @param filePath
+   *          relative or absolute path to save the snapshot to
+   * @throws FileNotFoundException
+   * @throws IOException
+   */
+  public void save(String filePath) throws FileNotFoundException, IOException {
+    OutputStream os = new FileOutputStream(filePath);
+    try {
+      save(os);
+    } finally {
+      os.close();
+    }
+  }
+
+  /**
+   * Stores this snapshot into an arbitrary OutputStream in the format written
+   * by {@link AddressBook#save(OutputStream os)}, so that it can be read with
+   * {@link AddressBook#load(java.io.InputStream is)}. As with
+   * {@code AddressBook.save}, only one of several contacts with identical
+   * names is written; here it is the one added first. The stream is flushed
+   * but not closed.
+   *
+   * @param os
+   *          the OutputStream to write into
+   * @throws IOException
+   */
+  public void save(OutputStream os) throws IOException {
+    XmlWriter writer = new XmlWriter(os);
+    writer.startElement(AddressBook.XML_NAME);
+    SnapshotIndex.Entry previous = null;
+    for (SnapshotIndex.Entry entry : entries) {
+      if (previous == null
+          || SnapshotIndex.BY_NAME.compare(previous, entry) != 0) {
+        entry.contact.writeXml(writer);
+      }
+      previous = entry;
+    }
+    writer.endElement(AddressBook.XML_NAME);
+    writer.flush();
+  }
+
+  /**
+   * Provides a description of this snapshot. The following representation can
+   * be regarded as typical: "[AddressBookSnapshot: version 7, 102 entries]"
+   *
+   * @return summary description of the snapshot
+   */
+  @Override
+  public String toString() {
+    return String.format("[AddressBookSnapshot: version %d, %d entries]",
+        version, size());
+  }
+
+  /**
+   * A read-only list view of the snapshot's tree, so that getAllContacts does
+   * not have to copy the contacts
+   */
+  private static final class ContactList extends AbstractList<Contact> {
+    private final PersistentTree<SnapshotIndex.Entry> entries;
+
+    ContactList(PersistentTree<SnapshotIndex.Entry> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    public Contact get(int index) {
+      return entries.get(index).contact;
+    }
+
+    @Override
+    public int size() {
+      return entries.size();
+    }
+
+    @Override
+    public Iterator<Contact> iterator() {
+      final Iterator<SnapshotIndex.Entry> it = entries.iterator();
+      return new Iterator<Contact>() {
+        @Override
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        @Override
+        public Contact next() {
+          return it.next().contact;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+}
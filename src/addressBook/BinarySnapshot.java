@@ -0,0 +1,321 @@
+package addressBook;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the compact binary snapshot format of an
+ * {@link AddressBook}. All values are big-endian. The layout of version 1 is:
+ *
+ * <pre>
+ * int    magic ("ABKS")
+ * int    format version
+ * int    number of strings in the string table
+ * { int length, byte[length] UTF-8 } for each string
+ * int    number of contacts
+ * for each contact:
+ *   int  first name, last name, email, note (string table index or -1)
+ *   byte field mask (1 = postal address, 2 = phone number)
+ *   int  address line 1, line 2, city, state, country, postal code
+ *        (string table index; only if the postal address bit is set)
+ *   int  country code, long national number (only if the phone bit is set)
+ * </pre>
+ *
+ * Every distinct string is stored once in the string table, so values that
+ * repeat across many contacts (cities, states, countries, common names) cost
+ * four bytes per occurrence. Contacts are read back in the order they were
+ * written.
+ *
+ * A single contact can also be written as a self-contained record, which has
+ * the same layout as a contact above except that every string index is
+ * replaced by the string itself ({@code int length, byte[length] UTF-8}, or a
+ * length of -1 for null). This is used by the {@link ContactJournal}.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class BinarySnapshot {
+
+  static final int MAGIC = 0x41424B53; // "ABKS"
+  static final int VERSION = 1;
+
+  static final int NULL_STRING = -1;
+  static final int HAS_POSTAL_ADDRESS = 1;
+  static final int HAS_PHONE_NUMBER = 2;
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // Not instantiable
+  private BinarySnapshot() {
+    // No-op
+  }
+
+  /**
+   * Writes the contacts to the stream in the snapshot format. The stream is
+   * flushed but not closed.
+   *
+   * @param contacts
+   *          the contacts to write, in the order they should be read back
+   * @param os
+   *          the stream to write into
+   * @throws IOException
+   */
+  static void write(Collection<Contact> contacts, OutputStream os)
+      throws IOException {
+    // The records are encoded first, reading each field of a contact exactly
+    // once, so that a contact changed by another thread meanwhile is written
+    // with either its old or its new value; every string is added to the
+    // table as it is read
+    Map<String, Integer> stringTable = new HashMap<String, Integer>();
+    List<String> strings = new ArrayList<String>();
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    DataOutputStream records = new DataOutputStream(encoded);
+    int count = 0;
+    for (Contact c : contacts) {
+      ContactName name = c.getName();
+      records.writeInt(indexOf(name.getFirstName(), stringTable, strings));
+      records.writeInt(indexOf(name.getLastName(), stringTable, strings));
+      records.writeInt(indexOf(c.getEmailAddress(), stringTable, strings));
+      records.writeInt(indexOf(c.getNote(), stringTable, strings));
+
+      PostalAddress address = c.getPostalAddress();
+      PhoneNumber phoneNumber = c.getPhoneNumber();
+      int mask = (address != null ? HAS_POSTAL_ADDRESS : 0)
+          | (phoneNumber != null ? HAS_PHONE_NUMBER : 0);
+      records.writeByte(mask);
+      if (address != null) {
+        records.writeInt(indexOf(address.getAddressLine1(), stringTable,
+            strings));
+        records.writeInt(indexOf(address.getAddressLine2(), stringTable,
+            strings));
+        records.writeInt(indexOf(address.getCity(), stringTable, strings));
+        records.writeInt(indexOf(address.getState(), stringTable, strings));
+        records.writeInt(indexOf(address.getCountry(), stringTable, strings));
+        records.writeInt(indexOf(address.getPostalCode(), stringTable,
+            strings));
+      }
+      if (phoneNumber != null) {
+        records.writeInt(phoneNumber.getCountryCode());
+        records.writeLong(phoneNumber.getNationalNumber());
+      }
+      count++;
+    }
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+
+    out.writeInt(strings.size());
+    for (String s : strings) {
+      byte[] bytes = s.getBytes(UTF8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    out.writeInt(count);
+    encoded.writeTo(out);
+    out.flush();
+  }
+
+  /**
+   * Reads the contacts stored in a snapshot. The buffer may be a
+   * memory-mapped file; it is consumed from its current position.
+   *
+   * @param buffer
+   *          a big-endian buffer containing a complete snapshot
+   * @return the contacts in the order they were written
+   * @throws IOException
+   *           if the buffer does not contain a valid snapshot
+   */
+  static List<Contact> read(ByteBuffer buffer) throws IOException {
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not an AddressBook snapshot");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported AddressBook snapshot version "
+            + version);
+      }
+
+      String[] strings = new String[buffer.getInt()];
+      byte[] scratch = new byte[64];
+      for (int i = 0; i < strings.length; i++) {
+        int length = buffer.getInt();
+        if (buffer.hasArray()) {
+          int offset = buffer.arrayOffset() + buffer.position();
+          strings[i] = new String(buffer.array(), offset, length, UTF8);
+          buffer.position(buffer.position() + length);
+        } else {
+          if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+          }
+          buffer.get(scratch, 0, length);
+          strings[i] = new String(scratch, 0, length, UTF8);
+        }
+      }
+
+      int count = buffer.getInt();
+      List<Contact> contacts = new ArrayList<Contact>(count);
+      for (int i = 0; i < count; i++) {
+        String firstName = lookup(strings, buffer.getInt());
+        String lastName = lookup(strings, buffer.getInt());
+        Contact contact = Contact.createWithName(firstName, lastName);
+        contact.setEmailAddress(lookup(strings, buffer.getInt()));
+        contact.setNote(lookup(strings, buffer.getInt()));
+
+        int mask = buffer.get();
+        if ((mask & HAS_POSTAL_ADDRESS) != 0) {
+          contact.setPostalAddress(new PostalAddress(
+              lookup(strings, buffer.getInt()),
+              lookup(strings, buffer.getInt()),
+              lookup(strings, buffer.getInt()),
+              lookup(strings, buffer.getInt()),
+              lookup(strings, buffer.getInt()),
+              lookup(strings, buffer.getInt())));
+        }
+        if ((mask & HAS_PHONE_NUMBER) != 0) {
+          int countryCode = buffer.getInt();
+          long nationalNumber = buffer.getLong();
+          contact.setPhoneNumber(PhoneNumber.fromParts(countryCode,
+              nationalNumber));
+        }
+        contacts.add(contact);
+      }
+      return contacts;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated AddressBook snapshot", e);
+    }
+  }
+
+  /**
+   * Writes a single contact as a self-contained record.
+   *
+   * @param out
+   *          the output to write into
+   * @param contact
+   *          the contact to write
+   * @throws IOException
+   */
+  static void writeRecord(DataOutput out, Contact contact) throws IOException {
+    ContactName name = contact.getName();
+    writeString(out, name.getFirstName());
+    writeString(out, name.getLastName());
+    writeString(out, contact.getEmailAddress());
+    writeString(out, contact.getNote());
+
+    PostalAddress address = contact.getPostalAddress();
+    PhoneNumber phoneNumber = contact.getPhoneNumber();
+    int mask = (address != null ? HAS_POSTAL_ADDRESS : 0)
+        | (phoneNumber != null ? HAS_PHONE_NUMBER : 0);
+    out.writeByte(mask);
+    if (address != null) {
+      writeString(out, address.getAddressLine1());
+      writeString(out, address.getAddressLine2());
+      writeString(out, address.getCity());
+      writeString(out, address.getState());
+      writeString(out, address.getCountry());
+      writeString(out, address.getPostalCode());
+    }
+    if (phoneNumber != null) {
+      out.writeInt(phoneNumber.getCountryCode());
+      out.writeLong(phoneNumber.getNationalNumber());
+    }
+  }
+
+  /**
+   * Reads a single contact written by {@link #writeRecord}.
+   *
+   * @param in
+   *          the input to read from
+   * @return a new contact with all recorded fields populated
+   * @throws IOException
+   */
+  static Contact readRecord(DataInput in) throws IOException {
+    String firstName = readString(in);
+    if (firstName == null) {
+      throw new IOException("Contact record has no first name");
+    }
+    Contact contact = Contact.createWithName(firstName, readString(in));
+    contact.setEmailAddress(readString(in));
+    contact.setNote(readString(in));
+
+    int mask = in.readByte();
+    if ((mask & HAS_POSTAL_ADDRESS) != 0) {
+      contact.setPostalAddress(new PostalAddress(readString(in),
+          readString(in), readString(in), readString(in), readString(in),
+          readString(in)));
+    }
+    if ((mask & HAS_PHONE_NUMBER) != 0) {
+      int countryCode = in.readInt();
+      long nationalNumber = in.readLong();
+      contact.setPhoneNumber(PhoneNumber.fromParts(countryCode,
+          nationalNumber));
+    }
+    return contact;
+  }
+
+  private static void writeString(DataOutput out, String s)
+      throws IOException {
+    if (s == null) {
+      out.writeInt(NULL_STRING);
+    } else {
+      byte[] bytes = s.getBytes(UTF8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length == NULL_STRING) {
+      return null;
+    }
+    if (length < 0) {
+      throw new IOException("Invalid string length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * Gets the index of a string in the table, adding it if it is new
+   */
+  private static int indexOf(String s, Map<String, Integer> stringTable,
+      List<String> strings) {
+    if (s == null) {
+      return NULL_STRING;
+    }
+    Integer index = stringTable.get(s);
+    if (index == null) {
+      index = strings.size();
+      stringTable.put(s, index);
+      strings.add(s);
+    }
+    return index;
+  }
+
+  private static String lookup(String[] strings, int index)
+      throws IOException {
+    if (index == NULL_STRING) {
+      return null;
+    }
+    if (index < 0 || index >= strings.length) {
+      throw new IOException("Invalid string table index " + index);
+    }
+    return strings[index];
+  }
+}
@@ -0,0 +1,375 @@
+package addressBook;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A read-only copy of the contacts of an {@link AddressBook}, obtained from
+ * {@link AddressBook#toColumnar()}, that stores each field in its own column
+ * instead of as a graph of objects. The text of a field is packed into one
+ * array per column (see {@link TextColumn}), and phone numbers are kept as an
+ * int[] of country codes and a long[] of national numbers. A search with the
+ * predefined {@link SearchFilters}, and with filters combined from them,
+ * therefore scans a few contiguous arrays rather than following references
+ * from contact to name, address and String. Apart from the text itself, a
+ * contact takes about 55 bytes.
+ *
+ * Contacts are created on demand, as read-only views of one row: every call
+ * to {@link #getContact(int)} returns a new Contact, whose setters, and those
+ * of its name and postal address, throw
+ * {@link UnsupportedOperationException}. Searches with other filters create
+ * a view of each contact they test. As in a binary snapshot, a phone number
+ * only keeps its country code and national number.
+ *
+ * A ColumnarAddressBook may be shared between threads without
+ * synchronization.
+ *
+ * @author ck1456@nyu.edu
+ *
+ * @see AddressBook
+ */
+public final class ColumnarAddressBook {
+
+  private final int size;
+
+  private final TextColumn firstNames;
+  private final TextColumn lastNames;
+  private final TextColumn emailAddresses;
+  private final TextColumn notes;
+
+  private final BitSet hasPostalAddress;
+  private final TextColumn addressLines1;
+  private final TextColumn addressLines2;
+  private final TextColumn cities;
+  private final TextColumn states;
+  private final TextColumn countries;
+  private final TextColumn postalCodes;
+
+  private final BitSet hasPhoneNumber;
+  private final int[] countryCodes;
+  private final long[] nationalNumbers;
+
+  /**
+   * Copies contacts into columns
+   *
+   * @param contacts
+   *          the contacts, in the order of the rows
+   */
+  ColumnarAddressBook(Collection<Contact> contacts) {
+    int expected = contacts.size();
+    TextColumn.Builder first = new TextColumn.Builder(expected);
+    TextColumn.Builder last = new TextColumn.Builder(expected);
+    TextColumn.Builder email = new TextColumn.Builder(expected);
+    TextColumn.Builder note = new TextColumn.Builder(expected);
+    TextColumn.Builder line1 = new TextColumn.Builder(expected);
+    TextColumn.Builder line2 = new TextColumn.Builder(expected);
+    TextColumn.Builder city = new TextColumn.Builder(expected);
+    TextColumn.Builder state = new TextColumn.Builder(expected);
+    TextColumn.Builder country = new TextColumn.Builder(expected);
+    TextColumn.Builder postalCode = new TextColumn.Builder(expected);
+    hasPostalAddress = new BitSet(expected);
+    hasPhoneNumber = new BitSet(expected);
+    int[] codes = new int[expected];
+    long[] numbers = new long[expected];
+
+    int row = 0;
+    for (Contact c : contacts) {
+      if (row == codes.length) {
+        // The collection grew while it was copied
+        codes = Arrays.copyOf(codes, 2 * row + 1);
+        numbers = Arrays.copyOf(numbers, 2 * row + 1);
+      }
+      ContactName name = c.getName();
+      first.add(name.getFirstName());
+      last.add(name.getLastName());
+      email.add(c.getEmailAddress());
+      note.add(c.getNote());
+
+      PostalAddress address = c.getPostalAddress();
+      if (address != null) {
+        hasPostalAddress.set(row);
+        line1.add(address.getAddressLine1());
+        line2.add(address.getAddressLine2());
+        city.add(address.getCity());
+        state.add(address.getState());
+        country.add(address.getCountry());
+        postalCode.add(address.getPostalCode());
+      } else {
+        line1.add(null);
+        line2.add(null);
+        city.add(null);
+        state.add(null);
+        country.add(null);
+        postalCode.add(null);
+      }
+
+      PhoneNumber phoneNumber = c.getPhoneNumber();
+      if (phoneNumber != null) {
+        hasPhoneNumber.set(row);
+        codes[row] = phoneNumber.getCountryCode();
+        numbers[row] = phoneNumber.getNationalNumber();
+      }
+      row++;
+    }
+
+    size = row;
+    firstNames = first.build();
+    lastNames = last.build();
+    emailAddresses = email.build();
+    notes = note.build();
+    addressLines1 = line1.build();
+    addressLines2 = line2.build();
+    cities = city.build();
+    states = state.build();
+    countries = country.build();
+    postalCodes = postalCode.build();
+    countryCodes = (codes.length == size ? codes : Arrays.copyOf(codes, size));
+    nationalNumbers = (numbers.length == size ? numbers : Arrays.copyOf(
+        numbers, size));
+  }
+
+  /**
+   * Gets the number of contacts in this book
+   *
+   * @return the number of contacts
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Creates a read-only view of one contact
+   *
+   * @param index
+   *          the row of the contact, between 0 and {@code size() - 1}
+   * @return a new read-only Contact
+   * @throws IndexOutOfBoundsException
+   *           if the index is out of range
+   */
+  public Contact getContact(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size);
+    }
+    Contact contact = Contact.createWithName(firstNames.get(index),
+        lastNames.get(index));
+    contact.setEmailAddress(emailAddresses.get(index));
+    contact.setNote(notes.get(index));
+    if (hasPostalAddress.get(index)) {
+      contact.setPostalAddress(new PostalAddress(addressLines1.get(index),
+          addressLines2.get(index), cities.get(index), states.get(index),
+          countries.get(index), postalCodes.get(index)));
+    }
+    if (hasPhoneNumber.get(index)) {
+      contact.setPhoneNumber(PhoneNumber.fromParts(countryCodes[index],
+          nationalNumbers[index]));
+    }
+    return contact.readOnlyCopy();
+  }
+
+  /**
+   * Gets an unmodifiable list of all contacts in this book, in the order of
+   * {@link AddressBook#getAllContacts()} when it was copied. Contacts are
+   * created as the list is read, see {@link #getContact(int)}.
+   *
+   * @return an unmodifiable List of the contacts in this book
+   */
+  public List<Contact> getAllContacts() {
+    return new AbstractList<Contact>() {
+      @Override
+      public Contact get(int index) {
+        return getContact(index);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Searches for an arbitrary string in all fields of all contacts of this
+   * book. This is equivalent to {@code search(query, SearchFilters.AnyField)}
+   *
+   * @param query
+   *          substring to search for
+   * @return a (possibly empty) list of contact records that contain the query
+   *         text in the specified fields
+   */
+  public List<Contact> search(String query) {
+    return search(query, SearchFilters.AnyField);
+  }
+
+  /**
+   * Searches for text in arbitrary fields of all contacts of this book.
+   * Results are in the order of {@link #getAllContacts()}. The predefined
+   * {@link SearchFilters}, and filters combined from them with
+   * {@code and}, {@code or}, {@code not}, {@code withQuery} and
+   * {@code withEstimates}, are evaluated on the columns; other filters are
+   * called with a view of each contact left to test.
+   *
+   * @see SearchFilters
+   * @param query
+   *          substring to search for
+   * @param filter
+   * @return a (possibly empty) list of contact records that contain the query
+   *         text in the specified fields
+   */
+  public List<Contact> search(String query, ISearchFilter filter) {
+    if (filter == null) {
+      throw new IllegalArgumentException("A search filter is required");
+    }
+    BitSet all = new BitSet(size);
+    all.set(0, size);
+    BitSet matches = matches(query, filter, all);
+    List<Contact> results = new ArrayList<Contact>(matches.cardinality());
+    for (int row = matches.nextSetBit(0); row >= 0; row = matches
+        .nextSetBit(row + 1)) {
+      results.add(getContact(row));
+    }
+    return results;
+  }
+
+  /**
+   * Estimates the heap memory used by the columns of this book, for
+   * comparison with {@link AddressBook#getFootprintReport()}
+   *
+   * @return the estimated size in bytes
+   */
+  public long getEstimatedBytes() {
+    long bytes = 0;
+    for (TextColumn column : new TextColumn[] { firstNames, lastNames,
+        emailAddresses, notes, addressLines1, addressLines2, cities, states,
+        countries, postalCodes }) {
+      bytes += column.estimatedBytes();
+    }
+    bytes += 4L * countryCodes.length + 8L * nationalNumbers.length;
+    bytes += (hasPostalAddress.size() + hasPhoneNumber.size()) / 8;
+    return bytes;
+  }
+
+  /**
+   * Provides a description of this book. The following representation can be
+   * regarded as typical: "[ColumnarAddressBook: 102 entries]"
+   *
+   * @return summary description of the book
+   */
+  @Override
+  public String toString() {
+    return String.format("[ColumnarAddressBook: %d entries]", size);
+  }
+
+  /**
+   * Evaluates a filter on a set of rows
+   *
+   * @param rows
+   *          the rows to test; not modified
+   * @return the rows matching the filter
+   */
+  private BitSet matches(String query, ISearchFilter filter, BitSet rows) {
+    BitSet matches = new BitSet(size);
+    if (rows.isEmpty()) {
+      return matches;
+    }
+    SearchField field = SearchField.forFilter(filter);
+    if (field != null) {
+      if (query != null) {
+        scan(query, field, rows, matches);
+      }
+      return matches;
+    }
+    if (filter instanceof SearchFilters.FixedQueryFilter) {
+      SearchFilters.FixedQueryFilter fixed =
+          (SearchFilters.FixedQueryFilter) filter;
+      return matches(fixed.query(), fixed.filter(), rows);
+    }
+    if (filter instanceof SearchFilters.EstimatedFilter) {
+      return matches(query, ((SearchFilters.EstimatedFilter) filter).filter(),
+          rows);
+    }
+    if (filter instanceof SearchFilters.AndFilter) {
+      // Each part only tests the rows that matched all parts before it
+      BitSet remaining = rows;
+      for (ISearchFilter part : ((SearchFilters.AndFilter) filter).filters()) {
+        remaining = matches(query, part, remaining);
+      }
+      return remaining;
+    }
+    if (filter instanceof SearchFilters.OrFilter) {
+      // Each part only tests the rows that no part before it matched
+      BitSet remaining = (BitSet) rows.clone();
+      for (ISearchFilter part : ((SearchFilters.OrFilter) filter).filters()) {
+        BitSet found = matches(query, part, remaining);
+        matches.or(found);
+        remaining.andNot(found);
+      }
+      return matches;
+    }
+    if (filter instanceof SearchFilters.NotFilter) {
+      matches.or(rows);
+      matches.andNot(matches(query, ((SearchFilters.NotFilter) filter)
+          .filter(), rows));
+      return matches;
+    }
+    for (int row = rows.nextSetBit(0); row >= 0; row = rows
+        .nextSetBit(row + 1)) {
+      if (filter.isMatch(query, getContact(row))) {
+        matches.set(row);
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Applies one of the predefined single field filters to the columns
+   */
+  private void scan(String query, SearchField field, BitSet rows,
+      BitSet matches) {
+    switch (field) {
+    case NAME:
+      firstNames.scan(query, rows, matches);
+      lastNames.scan(query, rows, matches);
+      break;
+    case POSTAL_ADDRESS:
+      BitSet addressRows = (BitSet) rows.clone();
+      addressRows.and(hasPostalAddress);
+      for (TextColumn column : new TextColumn[] { addressLines1,
+          addressLines2, cities, states, countries, postalCodes }) {
+        column.scan(query, addressRows, matches);
+      }
+      break;
+    case EMAIL_ADDRESS:
+      emailAddresses.scan(query, rows, matches);
+      break;
+    case PHONE_NUMBER:
+      scanPhoneNumbers(query, rows, matches);
+      break;
+    case NOTE:
+      notes.scan(query, rows, matches);
+      break;
+    }
+  }
+
+  /**
+   * Finds the rows whose national number, written as in
+   * {@link PhoneNumber#asString()}, contains a query
+   */
+  private void scanPhoneNumbers(String query, BitSet rows, BitSet matches) {
+    if (!PhoneNumber.isDigits(query)) {
+      return;
+    }
+    char[] digits = new char[PhoneNumber.MAX_DIGITS];
+    for (int row = rows.nextSetBit(0); row >= 0; row = rows
+        .nextSetBit(row + 1)) {
+      if (hasPhoneNumber.get(row)
+          && PhoneNumber.digitsContain(nationalNumbers[row], query, digits)) {
+        matches.set(row);
+      }
+    }
+  }
+}
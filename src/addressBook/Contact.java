@@ -1,6 +1,14 @@
 package addressBook;
 
+import java.io.IOException;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -33,11 +41,17 @@ public final class Contact {
    *          the ContactName for this contact (cannot be null)
    */
   public void setName(ContactName name) {
+    checkWritable();
     if (name == null) {
       throw new IllegalArgumentException(
           "A Contact is required to have a non-null ContactName");
     }
+    if (listeners != null) {
+      this.name.removeOwner(this);
+      name.addOwner(this);
+    }
     this.name = name;
+    fireChanged(SearchField.NAME);
   }
 
   private String emailAddress;
@@ -61,7 +75,12 @@ public final class Contact {
    *          the email address to store
    */
   public void setEmailAddress(String newEmailAddress) {
+    checkWritable();
+    String oldEmailAddress = emailAddress;
     emailAddress = newEmailAddress;
+    if (!equal(oldEmailAddress, newEmailAddress)) {
+      fireChanged(SearchField.EMAIL_ADDRESS);
+    }
   }
 
   private String note;
@@ -85,7 +104,12 @@ public final class Contact {
    *          arbitrary note text
    */
   public void setNote(String newNote) {
+    checkWritable();
+    String oldNote = note;
     note = newNote;
+    if (!equal(oldNote, newNote)) {
+      fireChanged(SearchField.NOTE);
+    }
   }
 
   private PhoneNumber phoneNumber;
@@ -107,7 +131,12 @@ public final class Contact {
    *          the new phone number for this contact
    */
   public void setPhoneNumber(PhoneNumber newPhoneNumber) {
+    checkWritable();
+    PhoneNumber oldPhoneNumber = phoneNumber;
     phoneNumber = newPhoneNumber;
+    if (oldPhoneNumber != newPhoneNumber) {
+      fireChanged(SearchField.PHONE_NUMBER);
+    }
   }
 
   private PostalAddress postalAddress;
@@ -129,7 +158,103 @@ public final class Contact {
    *          new mailing address to use for this contact
    */
   public void setPostalAddress(PostalAddress newPostalAddress) {
+    checkWritable();
+    if (listeners != null) {
+      if (postalAddress != null) {
+        postalAddress.removeOwner(this);
+      }
+      if (newPostalAddress != null) {
+        newPostalAddress.addOwner(this);
+      }
+    }
     postalAddress = newPostalAddress;
+    fireChanged(SearchField.POSTAL_ADDRESS);
+  }
+
+  // Listeners to notify about changes, or null when nobody is listening
+  private List<IContactListener> listeners;
+
+  /**
+   * Registers a listener to be notified whenever a field of this contact, its
+   * name or its postal address is changed through a setter.
+   * 
+   * @param listener
+   *          the listener to add
+   */
+  void addListener(IContactListener listener) {
+    if (listeners == null) {
+      listeners = new CopyOnWriteArrayList<IContactListener>();
+      name.addOwner(this);
+      if (postalAddress != null) {
+        postalAddress.addOwner(this);
+      }
+    }
+    listeners.add(listener);
+  }
+
+  /**
+   * Unregisters a listener previously added with
+   * {@link #addListener(IContactListener)}.
+   * 
+   * @param listener
+   *          the listener to remove
+   */
+  void removeListener(IContactListener listener) {
+    if (listeners != null && listeners.remove(listener)
+        && listeners.isEmpty()) {
+      listeners = null;
+      name.removeOwner(this);
+      if (postalAddress != null) {
+        postalAddress.removeOwner(this);
+      }
+    }
+  }
+
+  /**
+   * Notifies all registered listeners that a group of fields of this contact
+   * has changed
+   * 
+   * @param field
+   *          the changed field group
+   */
+  void fireChanged(SearchField field) {
+    if (listeners != null) {
+      for (IContactListener listener : listeners) {
+        listener.contactChanged(this, field);
+      }
+    }
+  }
+
+  private static boolean equal(String a, String b) {
+    return (a == null ? b == null : a.equals(b));
+  }
+
+  // Set on the copies held by an AddressBookSnapshot, which must not change
+  private boolean readOnly;
+
+  /**
+   * Creates a copy of this contact, its name and its postal address that
+   * rejects all modifications. Phone numbers are immutable and are shared.
+   *
+   * @return a read-only copy of this contact
+   */
+  Contact readOnlyCopy() {
+    Contact copy = new Contact(name.readOnlyCopy());
+    if (postalAddress != null) {
+      copy.postalAddress = postalAddress.readOnlyCopy();
+    }
+    copy.phoneNumber = phoneNumber;
+    copy.emailAddress = emailAddress;
+    copy.note = note;
+    copy.readOnly = true;
+    return copy;
+  }
+
+  private void checkWritable() {
+    if (readOnly) {
+      throw new UnsupportedOperationException(
+          "Read-only contacts cannot be modified");
+    }
   }
 
   /**
@@ -173,8 +298,8 @@ public final class Contact {
   }
 
   static final String XML_NAME = "Contact";
-  private static final String EMAIL_XML_NAME = "Email";
-  private static final String NOTE_XML_NAME = "Note";
+  static final String EMAIL_XML_NAME = "Email";
+  static final String NOTE_XML_NAME = "Note";
 
   /**
    * Serializes this contact to an XML Element given the provided Docuemnt
@@ -211,6 +336,36 @@ public final class Contact {
     return contactXml;
   }
 
+  /**
+   * Serializes this contact using the provided streaming writer. The output is
+   * identical to serializing the element returned by
+   * {@link toXmlElement(Document doc)}, but no DOM nodes are created.
+   * 
+   * @param writer
+   *          the writer to append the contact element to
+   * @throws IOException
+   */
+  void writeXml(XmlWriter writer) throws IOException {
+    writer.startElement(XML_NAME);
+    name.writeXml(writer);
+    if (postalAddress != null) {
+      postalAddress.writeXml(writer);
+    }
+    if (phoneNumber != null) {
+      phoneNumber.writeXml(writer);
+    }
+
+    writer.startElement(EMAIL_XML_NAME);
+    writer.text(emailAddress);
+    writer.endElement(EMAIL_XML_NAME);
+
+    writer.startElement(NOTE_XML_NAME);
+    writer.text(note);
+    writer.endElement(NOTE_XML_NAME);
+
+    writer.endElement(XML_NAME);
+  }
+
   /**
    * Deserializes a contact from the supplied XML element.
    * 
@@ -241,6 +396,61 @@ public final class Contact {
     return newContact;
   }
 
+  /**
+   * Deserializes a contact from a streaming XML reader. This is the streaming
+   * counterpart of {@link fromXml(Element e)}: only the elements of a single
+   * contact are held in memory at a time. As with the DOM version, the first
+   * occurrence of each child element is used.
+   * 
+   * @param reader
+   *          a reader positioned on the start of a Contact element; on return
+   *          it is positioned on the matching end element
+   * @return a Contact with all fields represented by the XML populated
+   * @throws XMLStreamException
+   *           if the XML is malformed or the contact has no name
+   */
+  static Contact fromXml(XMLStreamReader reader) throws XMLStreamException {
+    ContactName newName = null;
+    PostalAddress newAddress = null;
+    PhoneNumber newPhoneNumber = null;
+    String newEmail = null;
+    String newNote = null;
+
+    int event = reader.next();
+    while (event != XMLStreamConstants.END_ELEMENT) {
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String element = reader.getLocalName();
+        if (newName == null && element.equals("ContactName")) {
+          newName = ContactName.fromXml(reader);
+        } else if (newAddress == null
+            && element.equals(PostalAddress.XML_NAME)) {
+          newAddress = PostalAddress.fromXml(reader);
+        } else if (newPhoneNumber == null
+            && element.equals(PhoneNumber.XML_NAME)) {
+          newPhoneNumber = PhoneNumber.fromXml(reader);
+        } else if (newEmail == null && element.equals(EMAIL_XML_NAME)) {
+          newEmail = reader.getElementText();
+        } else if (newNote == null && element.equals(NOTE_XML_NAME)) {
+          newNote = reader.getElementText();
+        } else {
+          StaxSupport.skipElement(reader);
+        }
+      }
+      event = reader.next();
+    }
+
+    if (newName == null) {
+      throw new XMLStreamException("Contact element has no ContactName",
+          reader.getLocation());
+    }
+    Contact newContact = new Contact(newName);
+    newContact.setPostalAddress(newAddress);
+    newContact.setPhoneNumber(newPhoneNumber);
+    newContact.setEmailAddress(newEmail);
+    newContact.setNote(newNote);
+    return newContact;
+  }
+
   /**
    * Provides a convenient way to sort Contact records by first name and then
    * last name
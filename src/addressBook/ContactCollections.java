@@ -0,0 +1,83 @@
+package addressBook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Creates the collections backing an {@link AddressBook} and its indexes. A
+ * concurrent AddressBook uses collections that can be read by any number of
+ * threads while a single writer modifies them; otherwise the plain (faster)
+ * java.util collections are used.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class ContactCollections {
+
+  // Not instantiable
+  private ContactCollections() {
+    // No-op
+  }
+
+  /**
+   * Creates an empty hash based set
+   */
+  static <E> Set<E> newSet(boolean concurrent) {
+    if (concurrent) {
+      return Collections.newSetFromMap(new ConcurrentHashMap<E, Boolean>());
+    }
+    return new HashSet<E>();
+  }
+
+  /**
+   * Creates an empty hash based set with room for a number of elements
+   */
+  static <E> Set<E> newSet(boolean concurrent, int expectedSize) {
+    int capacity = (int) Math.min((long) (expectedSize / 0.75f) + 1,
+        Integer.MAX_VALUE);
+    if (concurrent) {
+      return Collections.newSetFromMap(new ConcurrentHashMap<E, Boolean>(
+          capacity));
+    }
+    return new HashSet<E>(capacity);
+  }
+
+  /**
+   * Creates an empty hash based map
+   */
+  static <K, V> Map<K, V> newMap(boolean concurrent) {
+    if (concurrent) {
+      return new ConcurrentHashMap<K, V>();
+    }
+    return new HashMap<K, V>();
+  }
+
+  /**
+   * Creates an empty map sorted by the natural order of its keys
+   */
+  static <K, V> NavigableMap<K, V> newSortedMap(boolean concurrent) {
+    if (concurrent) {
+      return new ConcurrentSkipListMap<K, V>();
+    }
+    return new TreeMap<K, V>();
+  }
+
+  /**
+   * Creates a small list, e.g. for the contacts sharing an index key
+   */
+  static <E> List<E> newList(boolean concurrent) {
+    if (concurrent) {
+      return new CopyOnWriteArrayList<E>();
+    }
+    return new ArrayList<E>(1);
+  }
+}
@@ -0,0 +1,392 @@
+package addressBook;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An append-only write-ahead journal of the changes made to an
+ * {@link AddressBook} since its last binary snapshot was written. Every add,
+ * remove and contact change is appended as a small record, so the cost of
+ * persisting a change does not depend on the size of the book. When the
+ * journal grows larger than the book it is compacted: a new snapshot is
+ * written and the journal is started over.
+ *
+ * Contacts are identified in the journal by their position in the snapshot
+ * (or by the order in which they were added afterwards). The journal file
+ * layout is:
+ *
+ * <pre>
+ * int    magic ("ABKJ")
+ * int    format version
+ * long   CRC32 of the snapshot the journal applies to
+ * for each record:
+ *   int  length of the record body
+ *   int  CRC32 of the record body
+ *   body: byte type (1 = add, 2 = remove, 3 = update), int contact id,
+ *         followed by the contact for add and update (see
+ *         {@link BinarySnapshot#writeRecord})
+ * </pre>
+ *
+ * A record that was only partially written (e.g. because the process died)
+ * is detected by its length or checksum and discarded when the journal is
+ * replayed. A journal whose snapshot checksum does not match the snapshot on
+ * disk is stale, i.e. it was already folded into that snapshot by a
+ * compaction that did not finish resetting the journal, and is ignored.
+ * Records are flushed to the operating system as they are written.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class ContactJournal implements IContactObserver {
+
+  static final int MAGIC = 0x41424B4A; // "ABKJ"
+  static final int VERSION = 1;
+
+  private static final int HEADER_LENGTH = 16;
+  private static final byte ADD = 1;
+  private static final byte REMOVE = 2;
+  private static final byte UPDATE = 3;
+
+  // The journal is never compacted before it has at least this many records
+  private static final int MIN_COMPACTION_RECORDS = 1024;
+
+  private final File snapshotFile;
+  private final File journalFile;
+
+  private final Map<Contact, Integer> ids = new HashMap<Contact, Integer>();
+  private int nextId = 0;
+  private int recordCount = 0;
+
+  // Set while the records of a batch are written. The live contacts already
+  // include the whole batch, so compacting in the middle of it would journal
+  // the rest of the batch a second time.
+  private boolean inBatch = false;
+
+  private Collection<Contact> liveContacts;
+  private DataOutputStream out;
+
+  private final ByteArrayOutputStream recordBytes =
+      new ByteArrayOutputStream();
+  private final DataOutputStream record = new DataOutputStream(recordBytes);
+  private final CRC32 checksum = new CRC32();
+
+  /**
+   * Creates a journal for the given pair of files. Neither file has to exist.
+   *
+   * @param snapshotFile
+   *          the binary snapshot the journal applies to
+   * @param journalFile
+   *          the journal file
+   */
+  ContactJournal(File snapshotFile, File journalFile) {
+    this.snapshotFile = snapshotFile;
+    this.journalFile = journalFile;
+  }
+
+  /**
+   * Reads the snapshot and replays the journal over it, discarding a
+   * partially written tail. Afterwards the journal is open for appending.
+   *
+   * @return the contacts described by the snapshot and journal
+   * @throws IOException
+   */
+  List<Contact> replay() throws IOException {
+    List<Contact> byId = new ArrayList<Contact>();
+    long snapshotChecksum = 0;
+    if (snapshotFile.exists()) {
+      RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+      try {
+        FileChannel channel = file.getChannel();
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+            channel.size());
+        byId.addAll(BinarySnapshot.read(buffer));
+        snapshotChecksum = checksum(buffer);
+      } finally {
+        file.close();
+      }
+    }
+
+    long validLength = replayJournal(snapshotChecksum, byId);
+    if (validLength < HEADER_LENGTH) {
+      startJournal(snapshotChecksum);
+    } else {
+      RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+      try {
+        file.setLength(validLength);
+      } finally {
+        file.close();
+      }
+      out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(journalFile, true)));
+    }
+
+    List<Contact> contacts = new ArrayList<Contact>(byId.size());
+    for (int id = 0; id < byId.size(); id++) {
+      Contact c = byId.get(id);
+      if (c != null) {
+        ids.put(c, id);
+        contacts.add(c);
+      }
+    }
+    nextId = byId.size();
+    return contacts;
+  }
+
+  /**
+   * Starts journaling the changes to a set of contacts. The collection is
+   * written out as the new snapshot whenever the journal is compacted.
+   *
+   * @param contacts
+   *          a live view of the contacts in the AddressBook
+   */
+  void attach(Collection<Contact> contacts) {
+    liveContacts = contacts;
+  }
+
+  @Override
+  public void contactAdded(Contact contact) {
+    int id = nextId++;
+    ids.put(contact, id);
+    append(ADD, id, contact);
+  }
+
+  @Override
+  public void contactRemoved(Contact contact) {
+    Integer id = ids.remove(contact);
+    if (id != null) {
+      append(REMOVE, id, null);
+    }
+  }
+
+  @Override
+  public void batchApplied(Collection<Contact> added,
+      Collection<Contact> removed) {
+    inBatch = true;
+    try {
+      for (Contact c : removed) {
+        contactRemoved(c);
+      }
+      for (Contact c : added) {
+        contactAdded(c);
+      }
+    } finally {
+      inBatch = false;
+    }
+    try {
+      compactIfLarge();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write to the journal "
+          + journalFile, e);
+    }
+  }
+
+  @Override
+  public void contactChanged(Contact contact, SearchField field) {
+    Integer id = ids.get(contact);
+    if (id != null) {
+      append(UPDATE, id, contact);
+    }
+  }
+
+  /**
+   * Writes all live contacts to a new snapshot and starts an empty journal.
+   * The snapshot is written to a temporary file first and then moved into
+   * place, so a failure leaves the previous snapshot and journal intact.
+   *
+   * @throws IOException
+   */
+  void compact() throws IOException {
+    List<Contact> ordered = new ArrayList<Contact>(liveContacts);
+    File tempFile = new File(snapshotFile.getPath() + ".tmp");
+    CRC32 snapshotChecksum = new CRC32();
+    FileOutputStream fos = new FileOutputStream(tempFile);
+    try {
+      BinarySnapshot.write(ordered, new CheckedOutputStream(fos,
+          snapshotChecksum));
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+    Files.move(tempFile.toPath(), snapshotFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    out.close();
+    startJournal(snapshotChecksum.getValue());
+    ids.clear();
+    for (int id = 0; id < ordered.size(); id++) {
+      ids.put(ordered.get(id), id);
+    }
+    nextId = ordered.size();
+    recordCount = 0;
+  }
+
+  /**
+   * Closes the journal file. No further changes are recorded.
+   *
+   * @throws IOException
+   */
+  void close() throws IOException {
+    out.close();
+  }
+
+  private void append(byte type, int id, Contact contact) {
+    try {
+      recordBytes.reset();
+      record.writeByte(type);
+      record.writeInt(id);
+      if (contact != null) {
+        BinarySnapshot.writeRecord(record, contact);
+      }
+      byte[] body = recordBytes.toByteArray();
+      checksum.reset();
+      checksum.update(body);
+
+      out.writeInt(body.length);
+      out.writeInt((int) checksum.getValue());
+      out.write(body);
+      out.flush();
+
+      recordCount++;
+      if (!inBatch) {
+        compactIfLarge();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write to the journal "
+          + journalFile, e);
+    }
+  }
+
+  /**
+   * Compacts the journal once it has grown larger than the book
+   */
+  private void compactIfLarge() throws IOException {
+    if (recordCount > Math.max(MIN_COMPACTION_RECORDS, ids.size())) {
+      compact();
+    }
+  }
+
+  /**
+   * Applies the records of the journal file to the contacts read from the
+   * snapshot.
+   *
+   * @return the length of the valid prefix of the journal file, or 0 if the
+   *         journal is missing or does not apply to the snapshot
+   */
+  private long replayJournal(long snapshotChecksum, List<Contact> byId)
+      throws IOException {
+    if (!journalFile.exists()) {
+      return 0;
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(journalFile)));
+    try {
+      if (journalFile.length() < HEADER_LENGTH) {
+        return 0;
+      }
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not an AddressBook journal: " + journalFile);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported AddressBook journal version "
+            + version);
+      }
+      if (in.readLong() != snapshotChecksum) {
+        return 0;
+      }
+
+      long validLength = HEADER_LENGTH;
+      CRC32 recordChecksum = new CRC32();
+      try {
+        while (true) {
+          int length = in.readInt();
+          int expected = in.readInt();
+          if (length < 5) {
+            break;
+          }
+          byte[] body = new byte[length];
+          in.readFully(body);
+          recordChecksum.reset();
+          recordChecksum.update(body);
+          if ((int) recordChecksum.getValue() != expected) {
+            break;
+          }
+          apply(body, byId);
+          validLength += 8 + length;
+          recordCount++;
+        }
+      } catch (EOFException e) {
+        // A partially written record at the end; discard it
+      }
+      return validLength;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void apply(byte[] body, List<Contact> byId)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+    byte type = in.readByte();
+    int id = in.readInt();
+    if (id < 0) {
+      throw new IOException("Invalid contact id in journal: " + id);
+    }
+    while (byId.size() <= id) {
+      byId.add(null);
+    }
+    switch (type) {
+    case ADD:
+    case UPDATE:
+      byId.set(id, BinarySnapshot.readRecord(in));
+      break;
+    case REMOVE:
+      byId.set(id, null);
+      break;
+    default:
+      throw new IOException("Unknown journal record type: " + type);
+    }
+  }
+
+  private void startJournal(long snapshotChecksum) throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+        journalFile, false)));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(snapshotChecksum);
+    out.flush();
+  }
+
+  private static long checksum(ByteBuffer buffer) {
+    CRC32 crc = new CRC32();
+    ByteBuffer all = buffer.duplicate();
+    all.clear();
+    byte[] chunk = new byte[8192];
+    while (all.hasRemaining()) {
+      int length = Math.min(chunk.length, all.remaining());
+      all.get(chunk, 0, length);
+      crc.update(chunk, 0, length);
+    }
+    return crc.getValue();
+  }
+}
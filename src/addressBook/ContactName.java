@@ -1,6 +1,13 @@
 package addressBook;
 
+import java.io.IOException;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -77,10 +84,13 @@ public final class ContactName {
    * @param firstName a non-null first name for the contact
    */
   public void setFirstName(String firstName) {
+    checkWritable();
     if(firstName == null){
       throw new IllegalArgumentException("firstName is not allowed to be null");
     }
-    this.firstName = firstName;
+    String old = this.firstName;
+    this.firstName = StringPool.intern(firstName);
+    fireChanged(old, firstName);
   }
 
   private String lastName;
@@ -98,7 +108,10 @@ public final class ContactName {
    * @param lastName a last name for this contact
    */
   public void setLastName(String lastName) {
-    this.lastName = lastName;
+    checkWritable();
+    String old = this.lastName;
+    this.lastName = StringPool.intern(lastName);
+    fireChanged(old, lastName);
   }
 
   /**
@@ -111,6 +124,64 @@ public final class ContactName {
     setLastName(lastName);
   }
 
+  // Contacts to notify about changes, or null when nobody is listening
+  private List<Contact> owners;
+
+  /**
+   * Registers a contact that refers to this name so that it is notified
+   * when one of the fields is changed.
+   * @param owner the contact to notify
+   */
+  void addOwner(Contact owner) {
+    if (owners == null) {
+      owners = new CopyOnWriteArrayList<Contact>();
+    }
+    owners.add(owner);
+  }
+
+  /**
+   * Unregisters a contact added with {@link #addOwner(Contact)}.
+   * @param owner the contact to stop notifying
+   */
+  void removeOwner(Contact owner) {
+    if (owners != null && owners.remove(owner) && owners.isEmpty()) {
+      owners = null;
+    }
+  }
+
+  /**
+   * Notifies the owners that a name changed from one value to another, unless
+   * the values are equal
+   */
+  private void fireChanged(String oldValue, String newValue) {
+    if (owners != null
+        && (oldValue == null ? newValue != null : !oldValue.equals(newValue))) {
+      for (Contact owner : owners) {
+        owner.fireChanged(SearchField.NAME);
+      }
+    }
+  }
+
+  // Set on the copies held by an AddressBookSnapshot, which must not change
+  private boolean readOnly;
+
+  /**
+   * Creates a copy of this name that rejects all modifications
+   * @return a read-only copy of this name
+   */
+  ContactName readOnlyCopy() {
+    ContactName copy = new ContactName(firstName, lastName);
+    copy.readOnly = true;
+    return copy;
+  }
+
+  private void checkWritable() {
+    if (readOnly) {
+      throw new UnsupportedOperationException(
+          "Read-only contacts cannot be modified");
+    }
+  }
+
   /**
    * Returns an intuitive representation of this name. The exact details of the
    * representation are subject to change, but the typically the result will be
@@ -138,6 +209,22 @@ public final class ContactName {
     return newContactName;
   }
 
+  /**
+   * Deserializes a ContactName from a streaming XML reader. This is the
+   * streaming counterpart of {@link #fromXml(Element e)}.
+   * @param reader a reader positioned on the start of a ContactName element;
+   * on return it is positioned on the matching end element
+   * @return a ContactName with fields represented by the XML populated
+   * @throws XMLStreamException
+   */
+  static ContactName fromXml(XMLStreamReader reader)
+      throws XMLStreamException {
+    String firstName = StaxSupport.attribute(reader, "FirstName");
+    String lastName = StaxSupport.attribute(reader, "LastName");
+    StaxSupport.skipElement(reader);
+    return new ContactName(firstName, lastName);
+  }
+
   /**
    * Serializes this ContactName to an XML Element using the provided
    * Document context
@@ -151,4 +238,17 @@ public final class ContactName {
     return newElement;
   }
 
+  /**
+   * Serializes this ContactName using the provided streaming writer. The
+   * output is identical to serializing {@link #toXmlElement(Document doc)}.
+   * @param writer the writer to append the contact name element to
+   * @throws IOException
+   */
+  void writeXml(XmlWriter writer) throws IOException {
+    writer.startElement("ContactName");
+    writer.attribute("FirstName", firstName);
+    writer.attribute("LastName", lastName);
+    writer.endElement("ContactName");
+  }
+
 }
\ No newline at end of file
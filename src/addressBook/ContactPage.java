@@ -0,0 +1,58 @@
+package addressBook;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of contacts returned by
+ * {@link AddressBook#getPage(java.util.Comparator, int, String)}, together
+ * with the cursor of the following page. Pages are immutable.
+ *
+ * @author ck1456@nyu.edu
+ */
+public final class ContactPage {
+
+  private final List<Contact> contacts;
+  private final String nextCursor;
+
+  ContactPage(List<Contact> contacts, String nextCursor) {
+    this.contacts = Collections.unmodifiableList(contacts);
+    this.nextCursor = nextCursor;
+  }
+
+  /**
+   * Gets the contacts on this page, in the requested order
+   *
+   * @return an unmodifiable (possibly empty) list of at most the page size
+   *         contacts
+   */
+  public List<Contact> getContacts() {
+    return contacts;
+  }
+
+  /**
+   * Gets the cursor to pass to {@code getPage} to fetch the next page. The
+   * cursor is an opaque string that may be stored or sent to a client and
+   * used later, also with a modified AddressBook.
+   *
+   * @return the cursor of the next page, or null if this is the last page
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  /**
+   * Indicates whether there are more contacts after this page
+   *
+   * @return true if {@link #getNextCursor()} is not null
+   */
+  public boolean hasNext() {
+    return nextCursor != null;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("[ContactPage: %d contacts%s]", contacts.size(),
+        (hasNext() ? ", more" : ""));
+  }
+}
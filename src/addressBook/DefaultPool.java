@@ -0,0 +1,20 @@
+package addressBook;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds the fork-join pool used by parallel operations when the caller does
+ * not supply one. The pool has one thread per processor and is only created
+ * when first needed.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class DefaultPool {
+
+  static final ForkJoinPool INSTANCE = new ForkJoinPool();
+
+  // Not instantiable
+  private DefaultPool() {
+    // No-op
+  }
+}
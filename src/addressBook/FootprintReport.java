@@ -0,0 +1,195 @@
+package addressBook;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * An estimate of the heap memory used by the contacts of an AddressBook,
+ * created by {@link AddressBook#getFootprintReport()}. It shows how much of
+ * that memory is taken by the text of the fields, and how much sharing equal
+ * values between records saves. Sizes are estimated for a 64-bit JVM with
+ * compressed references and assume two bytes per character, so they are an
+ * upper bound on JVMs that store Latin-1 strings in one byte per character.
+ * Indexes and caches are not included. Reports are immutable.
+ *
+ * @author ck1456@nyu.edu
+ */
+public final class FootprintReport {
+
+  // Estimated shallow sizes of the objects making up a contact
+  private static final int CONTACT_SIZE = 40;
+  private static final int NAME_SIZE = 32;
+  private static final int ADDRESS_SIZE = 40;
+  private static final int PHONE_NUMBER_SIZE = 40;
+
+  // A String object and the header of its character array
+  private static final int STRING_OVERHEAD = 40;
+
+  private final int contactCount;
+  private final long objectBytes;
+  private final long stringReferences;
+  private final int distinctStrings;
+  private final long stringBytes;
+  private final long unsharedStringBytes;
+  private final int pooledStrings;
+
+  private FootprintReport(int contactCount, long objectBytes,
+      long stringReferences, int distinctStrings, long stringBytes,
+      long unsharedStringBytes, int pooledStrings) {
+    this.contactCount = contactCount;
+    this.objectBytes = objectBytes;
+    this.stringReferences = stringReferences;
+    this.distinctStrings = distinctStrings;
+    this.stringBytes = stringBytes;
+    this.unsharedStringBytes = unsharedStringBytes;
+    this.pooledStrings = pooledStrings;
+  }
+
+  /**
+   * Measures a collection of contacts
+   *
+   * @param contacts
+   *          the contacts to measure
+   * @return the report
+   */
+  static FootprintReport of(Collection<Contact> contacts) {
+    Map<String, Boolean> distinct = new IdentityHashMap<String, Boolean>();
+    long objectBytes = 0;
+    long references = 0;
+    long stringBytes = 0;
+    long unsharedBytes = 0;
+    int count = 0;
+    for (Contact c : contacts) {
+      count++;
+      objectBytes += CONTACT_SIZE + NAME_SIZE;
+      String[] values;
+      PostalAddress address = c.getPostalAddress();
+      if (address == null) {
+        values = new String[] { c.getName().getFirstName(),
+            c.getName().getLastName(), c.getEmailAddress(), c.getNote() };
+      } else {
+        objectBytes += ADDRESS_SIZE;
+        values = new String[] { c.getName().getFirstName(),
+            c.getName().getLastName(), c.getEmailAddress(), c.getNote(),
+            address.getAddressLine1(), address.getAddressLine2(),
+            address.getCity(), address.getState(), address.getCountry(),
+            address.getPostalCode() };
+      }
+      if (c.getPhoneNumber() != null) {
+        objectBytes += PHONE_NUMBER_SIZE;
+      }
+      for (String value : values) {
+        if (value == null) {
+          continue;
+        }
+        long size = sizeOf(value);
+        references++;
+        unsharedBytes += size;
+        if (distinct.put(value, Boolean.TRUE) == null) {
+          stringBytes += size;
+        }
+      }
+    }
+    return new FootprintReport(count, objectBytes, references,
+        distinct.size(), stringBytes, unsharedBytes, StringPool.size());
+  }
+
+  private static long sizeOf(String value) {
+    // Objects are aligned to 8 bytes
+    return (STRING_OVERHEAD + 2L * value.length() + 7) & ~7L;
+  }
+
+  /**
+   * Gets the number of contacts measured
+   *
+   * @return the number of contacts
+   */
+  public int getContactCount() {
+    return contactCount;
+  }
+
+  /**
+   * Gets the estimated memory used by the contact, name, address and phone
+   * number objects, excluding the text of their fields
+   *
+   * @return the estimated size in bytes
+   */
+  public long getObjectBytes() {
+    return objectBytes;
+  }
+
+  /**
+   * Gets the number of non-null text fields
+   *
+   * @return the number of string references
+   */
+  public long getStringReferences() {
+    return stringReferences;
+  }
+
+  /**
+   * Gets the number of distinct String instances referenced by the fields
+   *
+   * @return the number of String instances
+   */
+  public int getDistinctStrings() {
+    return distinctStrings;
+  }
+
+  /**
+   * Gets the estimated memory used by the text of the fields
+   *
+   * @return the estimated size in bytes of all distinct String instances
+   */
+  public long getStringBytes() {
+    return stringBytes;
+  }
+
+  /**
+   * Gets the estimated memory the text of the fields would use if no two
+   * fields shared a String instance
+   *
+   * @return the estimated size in bytes
+   */
+  public long getUnsharedStringBytes() {
+    return unsharedStringBytes;
+  }
+
+  /**
+   * Gets the estimated memory saved by sharing String instances
+   *
+   * @return {@code getUnsharedStringBytes() - getStringBytes()}
+   */
+  public long getSavedBytes() {
+    return unsharedStringBytes - stringBytes;
+  }
+
+  /**
+   * Gets the estimated total memory used by the contacts
+   *
+   * @return {@code getObjectBytes() + getStringBytes()}
+   */
+  public long getTotalBytes() {
+    return objectBytes + stringBytes;
+  }
+
+  /**
+   * Gets the number of strings held by the process wide pool that shares
+   * repeated field values
+   *
+   * @return the number of pooled strings
+   */
+  public int getPooledStrings() {
+    return pooledStrings;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("[FootprintReport: %d contacts, ~%d bytes "
+        + "(%d in objects, %d in %d strings for %d fields, %d saved by "
+        + "sharing); %d pooled strings]", contactCount, getTotalBytes(),
+        objectBytes, stringBytes, distinctStrings, stringReferences,
+        getSavedBytes(), pooledStrings);
+  }
+}
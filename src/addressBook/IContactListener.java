@@ -0,0 +1,22 @@
+package addressBook;
+
+/**
+ * Receives notifications when a field of a {@link Contact} (including the
+ * fields of its {@link ContactName} and {@link PostalAddress}) is modified
+ * through a setter. An {@link AddressBook} uses this to keep derived state in
+ * sync with the contacts it holds.
+ *
+ * @author ck1456@nyu.edu
+ */
+interface IContactListener {
+
+  /**
+   * Called after a field of the contact has been modified. Setters that do
+   * not change the value of a field (other than {@code setName} and
+   * {@code setPostalAddress}) do not notify.
+   *
+   * @param contact the contact that changed
+   * @param field the group of fields the modified field belongs to
+   */
+  void contactChanged(Contact contact, SearchField field);
+}
@@ -0,0 +1,46 @@
+package addressBook;
+
+import java.util.Collection;
+
+/**
+ * Internal extension point for state that an {@link AddressBook} derives from
+ * its contacts and has to keep up to date as the book is modified.
+ *
+ * @author ck1456@nyu.edu
+ */
+interface IContactObserver {
+
+  /**
+   * Called after a contact has been added to the AddressBook.
+   *
+   * @param contact the added contact
+   */
+  void contactAdded(Contact contact);
+
+  /**
+   * Called after a contact has been removed from the AddressBook.
+   *
+   * @param contact the removed contact
+   */
+  void contactRemoved(Contact contact);
+
+  /**
+   * Called after a batch of contacts has been added to and removed from the
+   * AddressBook at once. Observers should bring their state up to date once
+   * for the whole batch, e.g. by rebuilding it when the batch is large, and
+   * should never expose a state with only part of the batch applied.
+   *
+   * @param added the added contacts, which are distinct
+   * @param removed the removed contacts, which are distinct
+   */
+  void batchApplied(Collection<Contact> added, Collection<Contact> removed);
+
+  /**
+   * Called after a field of a contact held by the AddressBook has changed.
+   * Only state derived from the changed group of fields needs to be updated.
+   *
+   * @param contact the modified contact
+   * @param field the group of fields the modified field belongs to
+   */
+  void contactChanged(Contact contact, SearchField field);
+}
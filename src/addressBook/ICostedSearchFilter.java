@@ -0,0 +1,32 @@
+package addressBook;
+
+/**
+ * An {@link ISearchFilter} that also estimates how expensive it is to
+ * evaluate and how many contacts it matches. Compound filters created with
+ * {@link SearchFilters#and(ISearchFilter...)} and
+ * {@link SearchFilters#or(ISearchFilter...)} use these estimates to evaluate
+ * their cheapest, most decisive parts first. Filters that do not implement
+ * this interface are assumed to be comparatively expensive and to match half
+ * of all contacts.
+ *
+ * @author ck1456@nyu.edu
+ * @see SearchFilters
+ */
+public interface ICostedSearchFilter extends ISearchFilter {
+
+  /**
+   * Estimates the cost of one call to {@code isMatch}. The unit is the cost of
+   * testing whether a single field contains the query; only the relative
+   * magnitude of costs matters.
+   *
+   * @return a non-negative cost estimate
+   */
+  double getCost();
+
+  /**
+   * Estimates the fraction of contacts this filter matches
+   *
+   * @return a value between 0 (matches nothing) and 1 (matches everything)
+   */
+  double getSelectivity();
+}
@@ -0,0 +1,265 @@
+package addressBook;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hash indexes from the exact email address and phone number of each contact
+ * to the contacts having it. Email addresses are indexed ignoring case and
+ * surrounding white space; phone numbers by their canonical string
+ * {@link PhoneNumber#asString()}. Contacts without an email address or phone
+ * number are not indexed under it. The index of a concurrent AddressBook may
+ * be read while it is being modified.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class KeyIndex implements IContactObserver {
+
+  private final boolean concurrent;
+
+  private final Map<String, Set<Contact>> byEmailAddress;
+
+  private final Map<String, Set<Contact>> byPhoneNumber;
+
+  // The keys each contact was indexed with, needed to unindex it later
+  private final Map<Contact, String[]> indexedKeys;
+
+  private volatile boolean uniqueEmailAddresses = false;
+
+  private volatile boolean uniquePhoneNumbers = false;
+
+  /**
+   * Creates an index over the supplied contacts
+   *
+   * @param contacts
+   *          the contacts to index initially
+   * @param concurrent
+   *          whether the index may be read while it is modified
+   */
+  KeyIndex(Collection<Contact> contacts, boolean concurrent) {
+    this.concurrent = concurrent;
+    byEmailAddress = ContactCollections.newMap(concurrent);
+    byPhoneNumber = ContactCollections.newMap(concurrent);
+    indexedKeys = ContactCollections.newMap(concurrent);
+    for (Contact c : contacts) {
+      contactAdded(c);
+    }
+  }
+
+  @Override
+  public void contactAdded(Contact contact) {
+    String[] keys = keysOf(contact);
+    put(byEmailAddress, keys[0], contact);
+    put(byPhoneNumber, keys[1], contact);
+    indexedKeys.put(contact, keys);
+  }
+
+  @Override
+  public void contactRemoved(Contact contact) {
+    String[] keys = indexedKeys.remove(contact);
+    if (keys != null) {
+      remove(byEmailAddress, keys[0], contact);
+      remove(byPhoneNumber, keys[1], contact);
+    }
+  }
+
+  @Override
+  public void batchApplied(Collection<Contact> added,
+      Collection<Contact> removed) {
+    for (Contact c : removed) {
+      contactRemoved(c);
+    }
+    for (Contact c : added) {
+      contactAdded(c);
+    }
+  }
+
+  @Override
+  public void contactChanged(Contact contact, SearchField field) {
+    if (field != SearchField.EMAIL_ADDRESS
+        && field != SearchField.PHONE_NUMBER) {
+      return;
+    }
+    String[] keys = indexedKeys.get(contact);
+    String[] newKeys = keysOf(contact);
+    if (!equal(keys[0], newKeys[0]) || !equal(keys[1], newKeys[1])) {
+      contactRemoved(contact);
+      contactAdded(contact);
+    }
+  }
+
+  /**
+   * Finds the contacts with an email address
+   *
+   * @return a new (possibly empty) list of contacts
+   */
+  List<Contact> findByEmailAddress(String emailAddress) {
+    return find(byEmailAddress, emailKey(emailAddress));
+  }
+
+  /**
+   * Finds the contacts with a phone number
+   *
+   * @return a new (possibly empty) list of contacts
+   */
+  List<Contact> findByPhoneNumber(PhoneNumber phoneNumber) {
+    return find(byPhoneNumber, phoneKey(phoneNumber));
+  }
+
+  /**
+   * Sets whether {@link #checkUnique(Contact)} rejects contacts with the
+   * email address of an indexed contact
+   *
+   * @throws IllegalStateException
+   *           if indexed contacts already share an email address
+   */
+  void setUniqueEmailAddresses(boolean unique) {
+    if (unique) {
+      checkNoDuplicates(byEmailAddress, "email address");
+    }
+    uniqueEmailAddresses = unique;
+  }
+
+  /**
+   * Sets whether {@link #checkUnique(Contact)} rejects contacts with the
+   * phone number of an indexed contact
+   *
+   * @throws IllegalStateException
+   *           if indexed contacts already share a phone number
+   */
+  void setUniquePhoneNumbers(boolean unique) {
+    if (unique) {
+      checkNoDuplicates(byPhoneNumber, "phone number");
+    }
+    uniquePhoneNumbers = unique;
+  }
+
+  /**
+   * Checks that a contact about to be added does not share a key that is
+   * required to be unique with an indexed contact
+   *
+   * @throws IllegalArgumentException
+   *           if a key is not unique
+   */
+  void checkUnique(Contact contact) {
+    checkUnique(Collections.singleton(contact),
+        Collections.<Contact> emptySet());
+  }
+
+  /**
+   * Checks that a batch of contacts about to be added does not share a key
+   * that is required to be unique, neither with an indexed contact that is
+   * not about to be removed nor within the batch
+   *
+   * @param added
+   *          the contacts about to be added
+   * @param removed
+   *          the contacts about to be removed
+   * @throws IllegalArgumentException
+   *           if a key is not unique
+   */
+  void checkUnique(Collection<Contact> added, Set<Contact> removed) {
+    if (!uniqueEmailAddresses && !uniquePhoneNumbers) {
+      return;
+    }
+    Set<String> emailAddresses = new HashSet<String>();
+    Set<String> phoneNumbers = new HashSet<String>();
+    for (Contact c : added) {
+      String[] keys = keysOf(c);
+      if (uniqueEmailAddresses) {
+        checkUnique(byEmailAddress, keys[0], emailAddresses, removed,
+            "email address");
+      }
+      if (uniquePhoneNumbers) {
+        checkUnique(byPhoneNumber, keys[1], phoneNumbers, removed,
+            "phone number");
+      }
+    }
+  }
+
+  private static void checkUnique(Map<String, Set<Contact>> map, String key,
+      Set<String> batchKeys, Set<Contact> removed, String keyName) {
+    if (key == null) {
+      return;
+    }
+    if (!batchKeys.add(key)) {
+      throw new IllegalArgumentException("Several contacts have the "
+          + keyName + " " + key);
+    }
+    Set<Contact> contacts = map.get(key);
+    if (contacts != null && !removed.containsAll(contacts)) {
+      throw new IllegalArgumentException(
+          "The AddressBook already contains a contact with " + keyName + " "
+              + key);
+    }
+  }
+
+  private static void checkNoDuplicates(Map<String, Set<Contact>> map,
+      String keyName) {
+    for (Map.Entry<String, Set<Contact>> e : map.entrySet()) {
+      if (e.getValue().size() > 1) {
+        throw new IllegalStateException("Several contacts have the "
+            + keyName + " " + e.getKey());
+      }
+    }
+  }
+
+  private static String[] keysOf(Contact contact) {
+    return new String[] { emailKey(contact.getEmailAddress()),
+        phoneKey(contact.getPhoneNumber()) };
+  }
+
+  private static String emailKey(String emailAddress) {
+    if (emailAddress == null) {
+      return null;
+    }
+    String key = emailAddress.trim().toLowerCase(Locale.ROOT);
+    return (key.isEmpty() ? null : key);
+  }
+
+  private static String phoneKey(PhoneNumber phoneNumber) {
+    return (phoneNumber == null ? null : phoneNumber.asString());
+  }
+
+  private static boolean equal(String a, String b) {
+    return (a == null ? b == null : a.equals(b));
+  }
+
+  private static List<Contact> find(Map<String, Set<Contact>> map, String key) {
+    Set<Contact> contacts = (key == null ? null : map.get(key));
+    if (contacts == null) {
+      return new ArrayList<Contact>();
+    }
+    return new ArrayList<Contact>(contacts);
+  }
+
+  private void put(Map<String, Set<Contact>> map, String key, Contact contact) {
+    if (key == null) {
+      return;
+    }
+    Set<Contact> contacts = map.get(key);
+    if (contacts == null) {
+      contacts = ContactCollections.newSet(concurrent);
+      map.put(key, contacts);
+    }
+    contacts.add(contact);
+  }
+
+  private static void remove(Map<String, Set<Contact>> map, String key,
+      Contact contact) {
+    if (key == null) {
+      return;
+    }
+    Set<Contact> contacts = map.get(key);
+    contacts.remove(contact);
+    if (contacts.isEmpty()) {
+      map.remove(key);
+    }
+  }
+}
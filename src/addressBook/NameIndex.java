@@ -0,0 +1,488 @@
+package addressBook;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Keeps the contacts of an {@link AddressBook} sorted by name in two nested
+ * sorted maps: last name, then first name, and first name, then last name.
+ * The first gives the order of {@link Contact#SORT_BY_LAST_NAME} directly and
+ * makes all contacts whose last name starts with a prefix a contiguous range.
+ * The second makes the contacts with a first name prefix a small number of
+ * ranges, one per distinct first name, each already ordered by last name.
+ *
+ * A null last name is indexed (and ordered) like an empty one. The index of a
+ * concurrent AddressBook may be read while it is being modified.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class NameIndex implements IContactObserver {
+
+  private final boolean concurrent;
+
+  private final NavigableMap<String, NavigableMap<String, List<Contact>>>
+      byLastName;
+
+  private final NavigableMap<String, NavigableMap<String, List<Contact>>>
+      byFirstName;
+
+  // The names each contact was indexed with, needed to unindex it later
+  private final Map<Contact, IndexedName> indexedNames;
+
+  // The sequence number of the next contact to be indexed. Contacts with
+  // identical names are kept in the order of their sequence numbers.
+  private long nextSequence = 0;
+
+  // Incremented whenever the set or order of indexed contacts changes
+  private volatile int modCount = 0;
+
+  /**
+   * Creates an index over the supplied contacts
+   *
+   * @param contacts
+   *          the contacts to index initially
+   * @param concurrent
+   *          whether the index may be read while it is modified
+   */
+  NameIndex(Collection<Contact> contacts, boolean concurrent) {
+    this.concurrent = concurrent;
+    byLastName = ContactCollections.newSortedMap(concurrent);
+    byFirstName = ContactCollections.newSortedMap(concurrent);
+    indexedNames = ContactCollections.newMap(concurrent);
+    for (Contact c : contacts) {
+      contactAdded(c);
+    }
+  }
+
+  @Override
+  public void contactAdded(Contact contact) {
+    index(contact);
+    modCount++;
+  }
+
+  @Override
+  public void contactRemoved(Contact contact) {
+    if (unindex(contact)) {
+      modCount++;
+    }
+  }
+
+  @Override
+  public void batchApplied(Collection<Contact> added,
+      Collection<Contact> removed) {
+    for (Contact c : removed) {
+      unindex(c);
+    }
+    for (Contact c : added) {
+      index(c);
+    }
+    modCount++;
+  }
+
+  private void index(Contact contact) {
+    ContactName name = contact.getName();
+    String first = name.getFirstName();
+    String last = (name.getLastName() == null ? "" : name.getLastName());
+    put(byLastName, last, first, contact);
+    put(byFirstName, first, last, contact);
+    indexedNames.put(contact, new IndexedName(first, last, nextSequence++));
+  }
+
+  private boolean unindex(Contact contact) {
+    IndexedName names = indexedNames.remove(contact);
+    if (names == null) {
+      return false;
+    }
+    remove(byLastName, names.last, names.first, contact);
+    remove(byFirstName, names.first, names.last, contact);
+    return true;
+  }
+
+  @Override
+  public void contactChanged(Contact contact, SearchField field) {
+    if (field != SearchField.NAME) {
+      return;
+    }
+    IndexedName names = indexedNames.get(contact);
+    ContactName name = contact.getName();
+    String last = (name.getLastName() == null ? "" : name.getLastName());
+    if (!names.first.equals(name.getFirstName()) || !names.last.equals(last)) {
+      contactRemoved(contact);
+      contactAdded(contact);
+    }
+  }
+
+  /**
+   * Gets a counter that changes whenever a contact is added or removed, or a
+   * name change moves a contact to a different position in the order.
+   *
+   * @return the current modification count
+   */
+  int modCount() {
+    return modCount;
+  }
+
+  /**
+   * Lists all indexed contacts ordered by last name and then first name
+   *
+   * @return a new list of all contacts
+   */
+  List<Contact> sortedByLastName() {
+    List<Contact> results = new ArrayList<Contact>(indexedNames.size());
+    for (NavigableMap<String, List<Contact>> byFirst : byLastName.values()) {
+      for (List<Contact> bucket : byFirst.values()) {
+        results.addAll(bucket);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Sorts some of the indexed contacts into the order of
+   * {@link #sortedByLastName()}, without listing all of them. Contacts that
+   * are not indexed, e.g. because they were removed meanwhile, are left out.
+   *
+   * @param contacts
+   *          the contacts to sort
+   * @return a new sorted list
+   */
+  List<Contact> sortByLastName(Collection<Contact> contacts) {
+    List<SortKey> keys = new ArrayList<SortKey>(contacts.size());
+    for (Contact c : contacts) {
+      IndexedName names = indexedNames.get(c);
+      if (names != null) {
+        keys.add(new SortKey(names, c));
+      }
+    }
+    Collections.sort(keys);
+    List<Contact> results = new ArrayList<Contact>(keys.size());
+    for (SortKey key : keys) {
+      results.add(key.contact);
+    }
+    return results;
+  }
+
+  /**
+   * Finds the contacts whose first or last name starts with a prefix.
+   *
+   * @param prefix
+   *          the (non-null) name prefix
+   * @param limit
+   *          the maximum number of contacts to return
+   * @return up to {@code limit} matching contacts, ordered by last name and
+   *         then first name
+   */
+  List<Contact> findByPrefix(String prefix, int limit) {
+    PriorityQueue<NameCursor> cursors = new PriorityQueue<NameCursor>();
+    offer(cursors, new NameCursor(byLastName.tailMap(prefix, true), prefix));
+    if (!prefix.isEmpty()) {
+      // With an empty prefix every contact is already in the last name range
+      for (Map.Entry<String, NavigableMap<String, List<Contact>>> e :
+          byFirstName.tailMap(prefix, true).entrySet()) {
+        if (!e.getKey().startsWith(prefix)) {
+          break;
+        }
+        offer(cursors, new NameCursor(e.getKey(), e.getValue()));
+      }
+    }
+
+    // Merge the ranges; a contact matching both prefixes occurs twice
+    List<Contact> results = new ArrayList<Contact>();
+    Set<Contact> seen = new HashSet<Contact>();
+    while (results.size() < limit && !cursors.isEmpty()) {
+      NameCursor cursor = cursors.poll();
+      for (Contact c : cursor.contacts) {
+        if (results.size() < limit && seen.add(c)) {
+          results.add(c);
+        }
+      }
+      offer(cursors, cursor);
+    }
+    return results;
+  }
+
+  /**
+   * Reads one page of contacts in name order, starting at a position. Only
+   * the buckets on the page are visited, and a position names the contact to
+   * continue with rather than counting the contacts before it, so contacts
+   * added or removed before the position do not shift later pages. If the
+   * contact of the position was removed meanwhile, the page starts with the
+   * contact that followed it.
+   *
+   * @param byFirstName
+   *          true for first name, last name order; false for last name, first
+   *          name order
+   * @param start
+   *          the position of the first contact of the page, or null for the
+   *          first page
+   * @param pageSize
+   *          the maximum number of contacts on the page
+   * @return the contacts of the page and the position of the next page
+   */
+  ContactPage page(boolean byFirstName, Position start, int pageSize) {
+    NavigableMap<String, NavigableMap<String, List<Contact>>> map =
+        (byFirstName ? this.byFirstName : byLastName);
+    if (start != null) {
+      map = map.tailMap(start.outer, true);
+    }
+    List<Contact> results = new ArrayList<Contact>(pageSize);
+    for (Map.Entry<String, NavigableMap<String, List<Contact>>> outer :
+        map.entrySet()) {
+      NavigableMap<String, List<Contact>> inner = outer.getValue();
+      boolean atStart = (start != null && outer.getKey().equals(start.outer));
+      if (atStart) {
+        inner = inner.tailMap(start.inner, true);
+      }
+      for (Map.Entry<String, List<Contact>> bucket : inner.entrySet()) {
+        // Read a stable copy of the bucket of a concurrent index
+        Contact[] contacts =
+            bucket.getValue().toArray(new Contact[bucket.getValue().size()]);
+        boolean inStartBucket =
+            (atStart && bucket.getKey().equals(start.inner));
+        for (Contact c : contacts) {
+          IndexedName names = indexedNames.get(c);
+          if (names == null) {
+            // Removed since the bucket was copied
+            continue;
+          }
+          if (inStartBucket && names.sequence < start.sequence) {
+            continue;
+          }
+          if (results.size() == pageSize) {
+            return new ContactPage(results, new Position(byFirstName,
+                outer.getKey(), bucket.getKey(), names.sequence).toString());
+          }
+          results.add(c);
+        }
+      }
+    }
+    return new ContactPage(results, null);
+  }
+
+  private static void offer(PriorityQueue<NameCursor> cursors,
+      NameCursor cursor) {
+    if (cursor.advance()) {
+      cursors.add(cursor);
+    }
+  }
+
+  private void put(
+      NavigableMap<String, NavigableMap<String, List<Contact>>> map,
+      String outerKey, String innerKey, Contact contact) {
+    NavigableMap<String, List<Contact>> inner = map.get(outerKey);
+    if (inner == null) {
+      inner = ContactCollections.newSortedMap(concurrent);
+      map.put(outerKey, inner);
+    }
+    List<Contact> bucket = inner.get(innerKey);
+    if (bucket == null) {
+      bucket = ContactCollections.newList(concurrent);
+      bucket.add(contact);
+      inner.put(innerKey, bucket);
+    } else {
+      bucket.add(contact);
+    }
+  }
+
+  private static void remove(
+      NavigableMap<String, NavigableMap<String, List<Contact>>> map,
+      String outerKey, String innerKey, Contact contact) {
+    NavigableMap<String, List<Contact>> inner = map.get(outerKey);
+    List<Contact> bucket = inner.get(innerKey);
+    bucket.remove(contact);
+    if (bucket.isEmpty()) {
+      inner.remove(innerKey);
+      if (inner.isEmpty()) {
+        map.remove(outerKey);
+      }
+    }
+  }
+
+  /**
+   * The names a contact was indexed with, and its sequence number
+   */
+  private static final class IndexedName {
+    final String first;
+    final String last;
+    final long sequence;
+
+    IndexedName(String first, String last, long sequence) {
+      this.first = first;
+      this.last = last;
+      this.sequence = sequence;
+    }
+  }
+
+  /**
+   * The position of a contact in the last name index
+   */
+  private static final class SortKey implements Comparable<SortKey> {
+    private final IndexedName names;
+    private final Contact contact;
+
+    SortKey(IndexedName names, Contact contact) {
+      this.names = names;
+      this.contact = contact;
+    }
+
+    @Override
+    public int compareTo(SortKey other) {
+      int result = names.last.compareTo(other.names.last);
+      if (result == 0) {
+        result = names.first.compareTo(other.names.first);
+      }
+      if (result == 0) {
+        result = (names.sequence < other.names.sequence ? -1
+            : (names.sequence == other.names.sequence ? 0 : 1));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Walks a range of the index in last name, first name order, one group of
+   * contacts with identical names at a time.
+   */
+  private static final class NameCursor implements Comparable<NameCursor> {
+    // Set when walking the last name index over all names with a prefix
+    private final Iterator<Map.Entry<String,
+        NavigableMap<String, List<Contact>>>> lastNames;
+    private final String lastNamePrefix;
+    // Set when walking the contacts with a single first name
+    private final String fixedFirstName;
+
+    private Iterator<Map.Entry<String, List<Contact>>> names;
+    private String lastName;
+    private String firstName;
+    private List<Contact> contacts;
+
+    NameCursor(Map<String, NavigableMap<String, List<Contact>>> lastNameRange,
+        String prefix) {
+      lastNames = lastNameRange.entrySet().iterator();
+      lastNamePrefix = prefix;
+      fixedFirstName = null;
+    }
+
+    NameCursor(String firstName, NavigableMap<String, List<Contact>> byLast) {
+      lastNames = null;
+      lastNamePrefix = null;
+      fixedFirstName = firstName;
+      names = byLast.entrySet().iterator();
+    }
+
+    boolean advance() {
+      if (fixedFirstName != null) {
+        if (!names.hasNext()) {
+          return false;
+        }
+        Map.Entry<String, List<Contact>> e = names.next();
+        lastName = e.getKey();
+        firstName = fixedFirstName;
+        contacts = e.getValue();
+        return true;
+      }
+
+      while (names == null || !names.hasNext()) {
+        if (!lastNames.hasNext()) {
+          return false;
+        }
+        Map.Entry<String, NavigableMap<String, List<Contact>>> e =
+            lastNames.next();
+        if (!e.getKey().startsWith(lastNamePrefix)) {
+          return false;
+        }
+        lastName = e.getKey();
+        names = e.getValue().entrySet().iterator();
+      }
+      Map.Entry<String, List<Contact>> e = names.next();
+      firstName = e.getKey();
+      contacts = e.getValue();
+      return true;
+    }
+
+    @Override
+    public int compareTo(NameCursor other) {
+      int result = lastName.compareTo(other.lastName);
+      return (result != 0 ? result : firstName.compareTo(other.firstName));
+    }
+  }
+
+  /**
+   * The position of a contact in one of the name orders: the names of its
+   * bucket and its sequence number. Contacts with identical names are kept in
+   * the order they were added, which is that of their sequence numbers.
+   * Positions are handed to clients as opaque cursor strings.
+   */
+  static final class Position {
+    private static final char BY_FIRST_NAME = 'F';
+    private static final char BY_LAST_NAME = 'L';
+
+    final boolean byFirstName;
+    final String outer;
+    final String inner;
+    final long sequence;
+
+    Position(boolean byFirstName, String outer, String inner, long sequence) {
+      this.byFirstName = byFirstName;
+      this.outer = outer;
+      this.inner = inner;
+      this.sequence = sequence;
+    }
+
+    /**
+     * Reads a position from its cursor string
+     *
+     * @param cursor
+     *          a string created by {@link #toString()}
+     * @return the position
+     * @throws IllegalArgumentException
+     *           if the string is not a cursor
+     */
+    static Position parse(String cursor) {
+      try {
+        char order = cursor.charAt(0);
+        if (order != BY_FIRST_NAME && order != BY_LAST_NAME) {
+          throw new IllegalArgumentException("Not a cursor: " + cursor);
+        }
+        int separator = cursor.indexOf(':', 1);
+        int end = separator + 1
+            + Integer.parseInt(cursor.substring(1, separator));
+        String outer = cursor.substring(separator + 1, end);
+        separator = cursor.indexOf(':', end);
+        int innerEnd = separator + 1
+            + Integer.parseInt(cursor.substring(end, separator));
+        String inner = cursor.substring(separator + 1, innerEnd);
+        long sequence = Long.parseLong(cursor.substring(innerEnd));
+        if (sequence < 0) {
+          throw new IllegalArgumentException("Not a cursor: " + cursor);
+        }
+        return new Position(order == BY_FIRST_NAME, outer, inner, sequence);
+      } catch (IndexOutOfBoundsException e) {
+        throw new IllegalArgumentException("Not a cursor: " + cursor);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Not a cursor: " + cursor);
+      }
+    }
+
+    /**
+     * Creates the cursor string: the order, then each name prefixed with its
+     * length, then the sequence number of the contact
+     */
+    @Override
+    public String toString() {
+      return new StringBuilder()
+          .append(byFirstName ? BY_FIRST_NAME : BY_LAST_NAME)
+          .append(outer.length()).append(':').append(outer)
+          .append(inner.length()).append(':').append(inner).append(sequence)
+          .toString();
+    }
+  }
+}
@@ -0,0 +1,646 @@
+package addressBook;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * An address book for very large numbers of contacts that keeps them
+ * serialized outside of the Java heap. Each contact added is written as a
+ * record in the layout of a binary snapshot into direct buffers (see
+ * {@link RecordStore}); the only thing kept on the heap is one array with the
+ * address of every record. Since the garbage collector neither sees nor
+ * copies the records, a book of many millions of contacts does not fill the
+ * old generation or lengthen collections. The buffers count against the
+ * {@code -XX:MaxDirectMemorySize} limit of the JVM.
+ *
+ * Contacts are copied when they are added, and later changes to them are not
+ * reflected; a contact is changed by removing it and adding it again.
+ * Removing a contact only marks its record as removed. Once more than half of
+ * the records are removed, the remaining ones are copied into new buffers and
+ * the old buffers are released. {@code search}, {@code save} and
+ * the predefined {@link SearchFilters} work on the records in place, reading
+ * only the fields they need; contacts are created on demand, as read-only
+ * views of one record, for the results of a search and as
+ * {@link #getAllContacts()} is read. As in a binary snapshot, a phone number
+ * only keeps its country code and national number.
+ *
+ * An OffHeapAddressBook is not thread safe.
+ *
+ * @author ck1456@nyu.edu
+ *
+ * @see AddressBook
+ */
+public final class OffHeapAddressBook {
+
+  // Set in the address of a removed record. Chunk indexes are ints, so the
+  // sign bit of an address is otherwise never set.
+  private static final long REMOVED = Long.MIN_VALUE;
+
+  // The number of addresses counted together in liveCounts
+  private static final int BLOCK_SIZE = 1024;
+
+  private RecordStore store = new RecordStore();
+
+  // The addresses of all records in the order they were added, including
+  // removed ones
+  private long[] addresses = new long[16];
+
+  private int recordCount = 0;
+
+  private int size = 0;
+
+  // The number of records that are not removed in each block of BLOCK_SIZE
+  // addresses, to find the record of an index without counting them all.
+  // Null while no record is removed.
+  private int[] liveCounts;
+
+  // Reused to serialize contacts as they are added
+  private final RecordBuffer recordBuffer = new RecordBuffer();
+  private final DataOutputStream recordOutput = new DataOutputStream(
+      recordBuffer);
+
+  private OffHeapAddressBook() {
+    // Created by the factory methods
+  }
+
+  /**
+   * Creates a new OffHeapAddressBook that is initially empty
+   *
+   * @return a new OffHeapAddressBook with no Contact records
+   */
+  public static OffHeapAddressBook createEmpty() {
+    return new OffHeapAddressBook();
+  }
+
+  /**
+   * Adds a copy of the contact to the book. Unlike {@link AddressBook#add},
+   * adding the same contact twice stores it twice.
+   *
+   * @param contact
+   *          a Contact record to store in the book
+   * @throws IllegalArgumentException
+   *           if the contact is null
+   */
+  public void add(Contact contact) {
+    if (contact == null) {
+      throw new IllegalArgumentException("Contact must not be null");
+    }
+    recordBuffer.reset();
+    try {
+      BinarySnapshot.writeRecord(recordOutput, contact);
+    } catch (IOException e) {
+      // Not thrown when writing to memory
+      throw new IllegalStateException(e);
+    }
+    if (recordCount == addresses.length) {
+      addresses = Arrays.copyOf(addresses, 2 * recordCount);
+    }
+    addresses[recordCount] = store.append(recordBuffer.array(),
+        recordBuffer.size());
+    if (liveCounts != null) {
+      int block = recordCount / BLOCK_SIZE;
+      if (block == liveCounts.length) {
+        liveCounts = Arrays.copyOf(liveCounts, 2 * block);
+      }
+      liveCounts[block]++;
+    }
+    recordCount++;
+    size++;
+  }
+
+  /**
+   * Adds copies of several contacts to the book
+   *
+   * @param newContacts
+   *          the contacts to store in the book
+   * @throws IllegalArgumentException
+   *           if the collection or one of the contacts is null
+   */
+  public void addAll(Collection<? extends Contact> newContacts) {
+    if (newContacts == null) {
+      throw new IllegalArgumentException("Contacts must not be null");
+    }
+    for (Contact contact : newContacts) {
+      add(contact);
+    }
+  }
+
+  /**
+   * Removes a contact from the book. Contacts after it move down by one
+   * index. This takes time proportional to the number of contacts only when
+   * the remaining records are copied into new buffers, which happens once
+   * every time about half of them have been removed.
+   *
+   * @param index
+   *          the index of the contact, between 0 and {@code size() - 1}
+   * @throws IndexOutOfBoundsException
+   *           if the index is out of range
+   */
+  public void remove(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size);
+    }
+    int slot = slotOf(index);
+    if (liveCounts == null) {
+      liveCounts = new int[(addresses.length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+      for (int i = 0; i < recordCount; i += BLOCK_SIZE) {
+        liveCounts[i / BLOCK_SIZE] = Math.min(BLOCK_SIZE, recordCount - i);
+      }
+    }
+    addresses[slot] |= REMOVED;
+    liveCounts[slot / BLOCK_SIZE]--;
+    size--;
+    if (size < recordCount / 2) {
+      compact();
+    }
+  }
+
+  /**
+   * Gets the number of contacts in the book
+   *
+   * @return the number of contacts
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Creates a read-only view of one contact
+   *
+   * @param index
+   *          the index of the contact in the order they were added, between 0
+   *          and {@code size() - 1}
+   * @return a new read-only Contact
+   * @throws IndexOutOfBoundsException
+   *           if the index is out of range
+   */
+  public Contact getContact(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size);
+    }
+    return moveTo(new OffHeapRecord(), slotOf(index)).toContact();
+  }
+
+  /**
+   * Gets an unmodifiable list of all contacts in the book, in the order they
+   * were added. Contacts are created as the list is read, see
+   * {@link #getContact(int)}. The list is a view of the book, and reflects
+   * contacts added and removed later.
+   *
+   * @return an unmodifiable List of the contacts in the book
+   */
+  public List<Contact> getAllContacts() {
+    return new ContactList();
+  }
+
+  /**
+   * Searches for an arbitrary string in all fields of all contacts of the
+   * book. This is equivalent to {@code search(query, SearchFilters.AnyField)}
+   *
+   * @param query
+   *          substring to search for
+   * @return a (possibly empty) list of contact records that contain the query
+   *         text in the specified fields
+   */
+  public List<Contact> search(String query) {
+    return search(query, SearchFilters.AnyField);
+  }
+
+  /**
+   * Searches for text in arbitrary fields of all contacts of the book.
+   * Results are in the order the contacts were added. The predefined
+   * {@link SearchFilters}, and filters combined from them with {@code and},
+   * {@code or}, {@code not}, {@code withQuery} and {@code withEstimates}, are
+   * evaluated on the serialized records; other filters are called with a view
+   * of each contact they have to test.
+   *
+   * @see SearchFilters
+   * @param query
+   *          substring to search for
+   * @param filter
+   * @return a (possibly empty) list of contact records that contain the query
+   *         text in the specified fields
+   */
+  public List<Contact> search(String query, ISearchFilter filter) {
+    if (filter == null) {
+      throw new IllegalArgumentException("A search filter is required");
+    }
+    RecordFilter recordFilter = compile(query, filter);
+    OffHeapRecord record = new OffHeapRecord();
+    List<Contact> results = new ArrayList<Contact>();
+    for (int i = 0; i < recordCount; i++) {
+      if (addresses[i] >= 0 && recordFilter.isMatch(moveTo(record, i))) {
+        results.add(record.toContact());
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Gets the memory allocated outside of the heap to hold the records
+   *
+   * @return the size of the record buffers in bytes
+   */
+  public long getOffHeapBytes() {
+    return store.allocatedBytes();
+  }
+
+  /**
+   * Provides a description of this book. The following representation can be
+   * regarded as typical: "[OffHeapAddressBook: 102 entries]"
+   *
+   * @return summary description of the book
+   */
+  @Override
+  public String toString() {
+    return String.format("[OffHeapAddressBook: %d entries]", size);
+  }
+
+  /**
+   * Convenience method to parse an OffHeapAddressBook from a file. This method
+   * calls {@link #load(InputStream is)} internally and closes the file when
+   * done.
+   *
+   * @param filePath
+   *          relative or absolute path to an xml file produced by serializing
+   *          an AddressBook
+   * @return a new OffHeapAddressBook holding the contacts of the file
+   * @throws FileNotFoundException
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  public static OffHeapAddressBook load(String filePath)
+      throws FileNotFoundException, XMLStreamException, IOException {
+    InputStream input = new FileInputStream(filePath);
+    try {
+      return load(input);
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Loads an OffHeapAddressBook from the xml format written by
+   * {@link AddressBook#save(OutputStream os)}, using a pull parser. Each
+   * contact is deserialized and stored before the next one is read, so the
+   * heap only ever holds one of them.
+   *
+   * @param is
+   *          the stream to load from
+   * @return a new OffHeapAddressBook
+   * @throws XMLStreamException
+   */
+  public static OffHeapAddressBook load(InputStream is)
+      throws XMLStreamException {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    XMLStreamReader reader = factory.createXMLStreamReader(is);
+    OffHeapAddressBook addressBook = createEmpty();
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT
+            && reader.getLocalName().equals(Contact.XML_NAME)) {
+          addressBook.add(Contact.fromXml(reader));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return addressBook;
+  }
+
+  /**
+   * Convenience method for serializing the book to a file. This method calls
+   * {@code save(OutputStream os)} internally and closes the file when done.
+   *
+   * @param filePath
+   *          relative or absolute path to save the book to
+   * @throws FileNotFoundException
+   * @throws IOException
+   */
+  public void save(String filePath) throws FileNotFoundException, IOException {
+    OutputStream os = new FileOutputStream(filePath);
+    try {
+      save(os);
+    } finally {
+      os.close();
+    }
+  }
+
+  /**
+   * Stores the book into an arbitrary OutputStream in the xml format read by
+   * {@link AddressBook#load(InputStream is)} and {@link #load(InputStream)}.
+   * Contacts are written in the order they were added, straight from their
+   * records, and none are left out. The stream is flushed but not closed.
+   *
+   * @param os
+   *          the OutputStream to write into
+   * @throws IOException
+   */
+  public void save(OutputStream os) throws IOException {
+    XmlWriter writer = new XmlWriter(os);
+    writer.startElement(AddressBook.XML_NAME);
+    OffHeapRecord record = new OffHeapRecord();
+    for (int i = 0; i < recordCount; i++) {
+      if (addresses[i] >= 0) {
+        moveTo(record, i).writeXml(writer);
+      }
+    }
+    writer.endElement(AddressBook.XML_NAME);
+    writer.flush();
+  }
+
+  private OffHeapRecord moveTo(OffHeapRecord record, int slot) {
+    long address = addresses[slot];
+    record.moveTo(store.chunk(address), RecordStore.offset(address));
+    return record;
+  }
+
+  /**
+   * Finds the position in {@code addresses} of the record of a contact
+   *
+   * @param index
+   *          the index of the contact, counting only records not removed
+   * @return the position of its address
+   */
+  private int slotOf(int index) {
+    if (liveCounts == null) {
+      return index;
+    }
+    int block = 0;
+    while (index >= liveCounts[block]) {
+      index -= liveCounts[block];
+      block++;
+    }
+    int slot = block * BLOCK_SIZE;
+    while (addresses[slot] < 0 || index-- > 0) {
+      slot++;
+    }
+    return slot;
+  }
+
+  /**
+   * Copies the records that are not removed into a new store, so that the
+   * buffers of the old one can be released
+   */
+  private void compact() {
+    RecordStore compacted = new RecordStore();
+    long[] compactedAddresses = new long[Math.max(16, 2 * size)];
+    OffHeapRecord record = new OffHeapRecord();
+    int live = 0;
+    for (int i = 0; i < recordCount; i++) {
+      if (addresses[i] >= 0) {
+        moveTo(record, i);
+        compactedAddresses[live++] = compacted.append(record.buffer(),
+            record.offset(), record.length());
+      }
+    }
+    store = compacted;
+    addresses = compactedAddresses;
+    recordCount = live;
+    liveCounts = null;
+  }
+
+  /**
+   * Translates a search filter into a filter on records
+   */
+  private static RecordFilter compile(String query, ISearchFilter filter) {
+    SearchField field = SearchField.forFilter(filter);
+    if (field != null) {
+      return (query == null ? RecordFilter.NONE : new FieldFilter(field,
+          query));
+    }
+    if (filter instanceof SearchFilters.FixedQueryFilter) {
+      SearchFilters.FixedQueryFilter fixed =
+          (SearchFilters.FixedQueryFilter) filter;
+      return compile(fixed.query(), fixed.filter());
+    }
+    if (filter instanceof SearchFilters.EstimatedFilter) {
+      return compile(query, ((SearchFilters.EstimatedFilter) filter).filter());
+    }
+    if (filter instanceof SearchFilters.AndFilter) {
+      return new AndFilter(compileAll(query,
+          ((SearchFilters.AndFilter) filter).filters()));
+    }
+    if (filter instanceof SearchFilters.OrFilter) {
+      return new OrFilter(compileAll(query,
+          ((SearchFilters.OrFilter) filter).filters()));
+    }
+    if (filter instanceof SearchFilters.NotFilter) {
+      return new NotFilter(compile(query,
+          ((SearchFilters.NotFilter) filter).filter()));
+    }
+    return new ContactFilter(filter, query);
+  }
+
+  private static RecordFilter[] compileAll(String query,
+      ISearchFilter[] filters) {
+    RecordFilter[] compiled = new RecordFilter[filters.length];
+    for (int i = 0; i < filters.length; i++) {
+      compiled[i] = compile(query, filters[i]);
+    }
+    return compiled;
+  }
+
+  /**
+   * A search filter applied to a serialized record
+   */
+  private static abstract class RecordFilter {
+    static final RecordFilter NONE = new RecordFilter() {
+      @Override
+      boolean isMatch(OffHeapRecord record) {
+        return false;
+      }
+    };
+
+    abstract boolean isMatch(OffHeapRecord record);
+  }
+
+  /**
+   * One of the predefined single field filters
+   */
+  private static final class FieldFilter extends RecordFilter {
+    private final SearchField field;
+    private final String query;
+    private final byte[] encodedQuery;
+
+    FieldFilter(SearchField field, String query) {
+      this.field = field;
+      this.query = query;
+      encodedQuery = query.getBytes(BinarySnapshot.UTF8);
+    }
+
+    @Override
+    boolean isMatch(OffHeapRecord record) {
+      switch (field) {
+      case NAME:
+        return record.contains(OffHeapRecord.FIRST_NAME, encodedQuery)
+            || record.contains(OffHeapRecord.LAST_NAME, encodedQuery);
+      case POSTAL_ADDRESS:
+        if (!record.hasPostalAddress()) {
+          return false;
+        }
+        for (int f = OffHeapRecord.ADDRESS_LINE_1;
+            f <= OffHeapRecord.POSTAL_CODE; f++) {
+          if (record.contains(f, encodedQuery)) {
+            return true;
+          }
+        }
+        return false;
+      case EMAIL_ADDRESS:
+        return record.contains(OffHeapRecord.EMAIL_ADDRESS, encodedQuery);
+      case PHONE_NUMBER:
+        return record.phoneNumberContains(query);
+      case NOTE:
+        return record.contains(OffHeapRecord.NOTE, encodedQuery);
+      default:
+        return false;
+      }
+    }
+  }
+
+  private static final class AndFilter extends RecordFilter {
+    private final RecordFilter[] filters;
+
+    AndFilter(RecordFilter[] filters) {
+      this.filters = filters;
+    }
+
+    @Override
+    boolean isMatch(OffHeapRecord record) {
+      for (RecordFilter filter : filters) {
+        if (!filter.isMatch(record)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class OrFilter extends RecordFilter {
+    private final RecordFilter[] filters;
+
+    OrFilter(RecordFilter[] filters) {
+      this.filters = filters;
+    }
+
+    @Override
+    boolean isMatch(OffHeapRecord record) {
+      for (RecordFilter filter : filters) {
+        if (filter.isMatch(record)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class NotFilter extends RecordFilter {
+    private final RecordFilter filter;
+
+    NotFilter(RecordFilter filter) {
+      this.filter = filter;
+    }
+
+    @Override
+    boolean isMatch(OffHeapRecord record) {
+      return !filter.isMatch(record);
+    }
+  }
+
+  /**
+   * Any other filter, called with a view of the record
+   */
+  private static final class ContactFilter extends RecordFilter {
+    private final ISearchFilter filter;
+    private final String query;
+
+    ContactFilter(ISearchFilter filter, String query) {
+      this.filter = filter;
+      this.query = query;
+    }
+
+    @Override
+    boolean isMatch(OffHeapRecord record) {
+      return filter.isMatch(query, record.toContact());
+    }
+  }
+
+  /**
+   * Gives access to the array of a ByteArrayOutputStream without copying it
+   */
+  private static final class RecordBuffer extends ByteArrayOutputStream {
+    byte[] array() {
+      return buf;
+    }
+  }
+
+  /**
+   * A read-only list of views of the records of the book
+   */
+  private final class ContactList extends AbstractList<Contact> {
+
+    @Override
+    public Contact get(int index) {
+      return getContact(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Walks the records in order, instead of looking up every index once
+     * records were removed
+     */
+    @Override
+    public Iterator<Contact> iterator() {
+      return new Iterator<Contact>() {
+        private final OffHeapRecord record = new OffHeapRecord();
+        private int slot = 0;
+
+        @Override
+        public boolean hasNext() {
+          while (slot < recordCount && addresses[slot] < 0) {
+            slot++;
+          }
+          return slot < recordCount;
+        }
+
+        @Override
+        public Contact next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return moveTo(record, slot++).toContact();
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,257 @@
+package addressBook;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A cursor over the serialized contacts of an {@link OffHeapAddressBook}. The
+ * records have the layout of {@link BinarySnapshot#writeRecord}. Moving to a
+ * record only locates its fields; their text is read from the buffer when a
+ * field is tested or a Contact is created. A cursor is used by one thread at
+ * a time.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class OffHeapRecord {
+
+  // The text fields in the order they are written
+  static final int FIRST_NAME = 0;
+  static final int LAST_NAME = 1;
+  static final int EMAIL_ADDRESS = 2;
+  static final int NOTE = 3;
+  static final int ADDRESS_LINE_1 = 4;
+  static final int ADDRESS_LINE_2 = 5;
+  static final int CITY = 6;
+  static final int STATE = 7;
+  static final int COUNTRY = 8;
+  static final int POSTAL_CODE = 9;
+  private static final int FIELD_COUNT = 10;
+
+  private ByteBuffer buffer;
+
+  // The range of the record in the buffer
+  private int start;
+  private int end;
+
+  // Positions of the length prefix of each text field, or -1 if the record
+  // has no postal address
+  private final int[] fields = new int[FIELD_COUNT];
+
+  private boolean hasPostalAddress;
+
+  // Position of the phone number, or -1 if there is none
+  private int phoneNumber;
+
+  private byte[] scratch = new byte[64];
+
+  private final char[] digits = new char[PhoneNumber.MAX_DIGITS];
+
+  /**
+   * Locates the fields of a record
+   *
+   * @param chunk
+   *          the buffer holding the record
+   * @param offset
+   *          the position of the record in the buffer
+   */
+  void moveTo(ByteBuffer chunk, int offset) {
+    buffer = chunk;
+    start = offset;
+    int position = offset;
+    for (int field = FIRST_NAME; field <= NOTE; field++) {
+      position = locate(field, position);
+    }
+    int mask = buffer.get(position++);
+    hasPostalAddress = (mask & BinarySnapshot.HAS_POSTAL_ADDRESS) != 0;
+    for (int field = ADDRESS_LINE_1; field <= POSTAL_CODE; field++) {
+      if (hasPostalAddress) {
+        position = locate(field, position);
+      } else {
+        fields[field] = -1;
+      }
+    }
+    phoneNumber = ((mask & BinarySnapshot.HAS_PHONE_NUMBER) != 0 ? position
+        : -1);
+    // A phone number is a country code and a national number
+    end = (phoneNumber >= 0 ? position + 12 : position);
+  }
+
+  /**
+   * @return the number of bytes taken by the record
+   */
+  int length() {
+    return end - start;
+  }
+
+  /**
+   * @return the position of the record in its buffer
+   */
+  int offset() {
+    return start;
+  }
+
+  /**
+   * @return the buffer holding the record
+   */
+  ByteBuffer buffer() {
+    return buffer;
+  }
+
+  private int locate(int field, int position) {
+    fields[field] = position;
+    int length = buffer.getInt(position);
+    return position + 4 + Math.max(length, 0);
+  }
+
+  /**
+   * Reads a text field
+   *
+   * @param field
+   *          one of the field constants
+   * @return a new String, or null
+   */
+  String getString(int field) {
+    int position = fields[field];
+    if (position < 0) {
+      return null;
+    }
+    int length = buffer.getInt(position);
+    if (length == BinarySnapshot.NULL_STRING) {
+      return null;
+    }
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, 2 * scratch.length)];
+    }
+    for (int i = 0; i < length; i++) {
+      scratch[i] = buffer.get(position + 4 + i);
+    }
+    return new String(scratch, 0, length, BinarySnapshot.UTF8);
+  }
+
+  /**
+   * Tests whether a text field contains a query. Because UTF-8 is
+   * self-synchronizing, this is the equivalent of
+   * {@code value != null && value.contains(query)} on the decoded value.
+   *
+   * @param field
+   *          one of the field constants
+   * @param query
+   *          the UTF-8 encoding of the query
+   * @return true if the field contains the query
+   */
+  boolean contains(int field, byte[] query) {
+    int position = fields[field];
+    if (position < 0) {
+      return false;
+    }
+    int length = buffer.getInt(position);
+    if (length == BinarySnapshot.NULL_STRING) {
+      return false;
+    }
+    if (query.length == 0) {
+      return true;
+    }
+    int start = position + 4;
+    int last = start + length - query.length;
+    byte first = query[0];
+    for (int i = start; i <= last; i++) {
+      if (buffer.get(i) != first) {
+        continue;
+      }
+      int j = 1;
+      while (j < query.length && buffer.get(i + j) == query[j]) {
+        j++;
+      }
+      if (j == query.length) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the record has a postal address
+   */
+  boolean hasPostalAddress() {
+    return hasPostalAddress;
+  }
+
+  /**
+   * Tests whether the phone number of the record, written as in
+   * {@link PhoneNumber#asString()}, contains a query
+   *
+   * @param query
+   *          the text to look for
+   * @return true if the record has a phone number containing the query
+   */
+  boolean phoneNumberContains(String query) {
+    return phoneNumber >= 0
+        && PhoneNumber.digitsContain(buffer.getLong(phoneNumber + 4), query,
+            digits);
+  }
+
+  /**
+   * Creates a read-only contact holding the fields of the record
+   *
+   * @return a new Contact
+   */
+  Contact toContact() {
+    Contact contact = Contact.createWithName(getString(FIRST_NAME),
+        getString(LAST_NAME));
+    contact.setEmailAddress(getString(EMAIL_ADDRESS));
+    contact.setNote(getString(NOTE));
+    if (hasPostalAddress) {
+      contact.setPostalAddress(new PostalAddress(getString(ADDRESS_LINE_1),
+          getString(ADDRESS_LINE_2), getString(CITY), getString(STATE),
+          getString(COUNTRY), getString(POSTAL_CODE)));
+    }
+    if (phoneNumber >= 0) {
+      contact.setPhoneNumber(PhoneNumber.fromParts(buffer.getInt(phoneNumber),
+          buffer.getLong(phoneNumber + 4)));
+    }
+    return contact.readOnlyCopy();
+  }
+
+  /**
+   * Writes the record in the xml format of {@link Contact#writeXml}, without
+   * creating a Contact
+   *
+   * @param writer
+   *          the writer to append the contact element to
+   * @throws IOException
+   */
+  void writeXml(XmlWriter writer) throws IOException {
+    writer.startElement(Contact.XML_NAME);
+    writer.startElement("ContactName");
+    writer.attribute("FirstName", getString(FIRST_NAME));
+    writer.attribute("LastName", getString(LAST_NAME));
+    writer.endElement("ContactName");
+    if (hasPostalAddress) {
+      // Attributes are written in the (alphabetical) order used by the DOM
+      writer.startElement(PostalAddress.XML_NAME);
+      writer.attribute("AddressLine1", getString(ADDRESS_LINE_1));
+      writer.attribute("AddressLine2", getString(ADDRESS_LINE_2));
+      writer.attribute("City", getString(CITY));
+      writer.attribute("Country", getString(COUNTRY));
+      writer.attribute("PostalCode", getString(POSTAL_CODE));
+      writer.attribute("State", getString(STATE));
+      writer.endElement(PostalAddress.XML_NAME);
+    }
+    if (phoneNumber >= 0) {
+      writer.startElement(PhoneNumber.XML_NAME);
+      writer.attribute(PhoneNumber.NUMBER_XML_NAME,
+          Long.toString(buffer.getLong(phoneNumber + 4)));
+      writer.endElement(PhoneNumber.XML_NAME);
+    }
+
+    writer.startElement(Contact.EMAIL_XML_NAME);
+    writer.text(getString(EMAIL_ADDRESS));
+    writer.endElement(Contact.EMAIL_XML_NAME);
+
+    writer.startElement(Contact.NOTE_XML_NAME);
+    writer.text(getString(NOTE));
+    writer.endElement(Contact.NOTE_XML_NAME);
+
+    writer.endElement(Contact.XML_NAME);
+  }
+}
@@ -0,0 +1,105 @@
+package addressBook;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates a search filter over a list of contacts on a fork-join pool. The
+ * list is split recursively into ranges that are matched in parallel, each
+ * task recording its matches in a shared array at the contacts' positions, so
+ * the results come out in list order regardless of how tasks are scheduled.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class ParallelSearch extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Lists with fewer contacts than this are searched on the calling thread
+   */
+  static final int SEQUENTIAL_THRESHOLD = 1024;
+
+  // The smallest range worth searching in a separate task
+  private static final int MIN_RANGE = 64;
+
+  // Ranges per worker thread, so that uneven filter costs still balance
+  private static final int RANGES_PER_THREAD = 8;
+
+  private final List<Contact> contacts;
+  private final String query;
+  private final ISearchFilter filter;
+  private final boolean[] matches;
+  private final int rangeSize;
+  private final int from;
+  private final int to;
+
+  private ParallelSearch(List<Contact> contacts, String query,
+      ISearchFilter filter, boolean[] matches, int rangeSize, int from,
+      int to) {
+    this.contacts = contacts;
+    this.query = query;
+    this.filter = filter;
+    this.matches = matches;
+    this.rangeSize = rangeSize;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * Finds the contacts of a list that match a query.
+   *
+   * @param contacts
+   *          the contacts to search, which must not change during the search
+   * @param query
+   *          the search text
+   * @param filter
+   *          the filter to evaluate the query with
+   * @param pool
+   *          the pool to run the search on
+   * @return the matching contacts in list order
+   */
+  static List<Contact> search(List<Contact> contacts, String query,
+      ISearchFilter filter, ForkJoinPool pool) {
+    int size = contacts.size();
+    if (size < SEQUENTIAL_THRESHOLD) {
+      List<Contact> results = new ArrayList<Contact>();
+      for (Contact c : contacts) {
+        if (filter.isMatch(query, c)) {
+          results.add(c);
+        }
+      }
+      return results;
+    }
+
+    boolean[] matches = new boolean[size];
+    int rangeSize = Math.max(MIN_RANGE, size
+        / (pool.getParallelism() * RANGES_PER_THREAD));
+    pool.invoke(new ParallelSearch(contacts, query, filter, matches,
+        rangeSize, 0, size));
+
+    List<Contact> results = new ArrayList<Contact>();
+    for (int i = 0; i < size; i++) {
+      if (matches[i]) {
+        results.add(contacts.get(i));
+      }
+    }
+    return results;
+  }
+
+  @Override
+  protected void compute() {
+    if (to - from <= rangeSize) {
+      for (int i = from; i < to; i++) {
+        matches[i] = filter.isMatch(query, contacts.get(i));
+      }
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    invokeAll(new ParallelSearch(contacts, query, filter, matches,
+        rangeSize, from, middle), new ParallelSearch(contacts, query, filter,
+        matches, rangeSize, middle, to));
+  }
+}
@@ -0,0 +1,264 @@
+package addressBook;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable sorted set implemented as a persistent AVL tree. Inserting or
+ * removing an element returns a new tree that shares all but O(log n) nodes
+ * with the original, so old versions remain valid and cheap to keep.
+ *
+ * Every node stores the size of its subtree, which allows elements to be
+ * located by position.
+ *
+ * @author ck1456@nyu.edu
+ *
+ * @param <E>
+ *          the element type
+ */
+final class PersistentTree<E> implements Iterable<E> {
+
+  private final Comparator<? super E> comparator;
+  private final Node<E> root;
+
+  private static final class Node<E> {
+    final E value;
+    final Node<E> left;
+    final Node<E> right;
+    final int height;
+    final int size;
+
+    Node(E value, Node<E> left, Node<E> right) {
+      this.value = value;
+      this.left = left;
+      this.right = right;
+      this.height = Math.max(height(left), height(right)) + 1;
+      this.size = size(left) + size(right) + 1;
+    }
+  }
+
+  private PersistentTree(Comparator<? super E> comparator, Node<E> root) {
+    this.comparator = comparator;
+    this.root = root;
+  }
+
+  /**
+   * Creates an empty tree
+   *
+   * @param comparator
+   *          the order of the elements; elements comparing equal are
+   *          considered the same element
+   * @return an empty tree
+   */
+  static <E> PersistentTree<E> empty(Comparator<? super E> comparator) {
+    return new PersistentTree<E>(comparator, null);
+  }
+
+  /**
+   * Creates a balanced tree from elements that are already sorted, in linear
+   * time.
+   *
+   * @param comparator
+   *          the order of the elements
+   * @param sorted
+   *          distinct elements in ascending order
+   * @return a tree holding the elements
+   */
+  static <E> PersistentTree<E> fromSorted(Comparator<? super E> comparator,
+      List<E> sorted) {
+    return new PersistentTree<E>(comparator, build(sorted, 0, sorted.size()));
+  }
+
+  /**
+   * Gets the number of elements
+   *
+   * @return the number of elements in the tree
+   */
+  int size() {
+    return size(root);
+  }
+
+  /**
+   * Creates a tree with an element added
+   *
+   * @param e
+   *          the element to add
+   * @return a tree that also holds e, replacing an element that compares
+   *         equal to it
+   */
+  PersistentTree<E> insert(E e) {
+    return new PersistentTree<E>(comparator, insert(root, e));
+  }
+
+  /**
+   * Creates a tree with an element removed
+   *
+   * @param e
+   *          the element to remove
+   * @return a tree without e; this tree if it does not hold e
+   */
+  PersistentTree<E> remove(E e) {
+    Node<E> newRoot = remove(root, e);
+    return (newRoot == root ? this : new PersistentTree<E>(comparator,
+        newRoot));
+  }
+
+  /**
+   * Gets the element at a position in the sort order
+   *
+   * @param index
+   *          a position between 0 and {@code size() - 1}
+   * @return the element at the position
+   */
+  E get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index);
+    }
+    Node<E> node = root;
+    while (true) {
+      int leftSize = size(node.left);
+      if (index < leftSize) {
+        node = node.left;
+      } else if (index > leftSize) {
+        index -= leftSize + 1;
+        node = node.right;
+      } else {
+        return node.value;
+      }
+    }
+  }
+
+  /**
+   * Iterates over the elements in ascending order
+   */
+  @Override
+  public Iterator<E> iterator() {
+    return new TreeIterator<E>(root);
+  }
+
+  private Node<E> insert(Node<E> node, E e) {
+    if (node == null) {
+      return new Node<E>(e, null, null);
+    }
+    int c = comparator.compare(e, node.value);
+    if (c < 0) {
+      return balance(node.value, insert(node.left, e), node.right);
+    } else if (c > 0) {
+      return balance(node.value, node.left, insert(node.right, e));
+    }
+    return new Node<E>(e, node.left, node.right);
+  }
+
+  private Node<E> remove(Node<E> node, E e) {
+    if (node == null) {
+      return null;
+    }
+    int c = comparator.compare(e, node.value);
+    if (c < 0) {
+      Node<E> left = remove(node.left, e);
+      return (left == node.left ? node : balance(node.value, left,
+          node.right));
+    } else if (c > 0) {
+      Node<E> right = remove(node.right, e);
+      return (right == node.right ? node : balance(node.value, node.left,
+          right));
+    }
+    if (node.left == null) {
+      return node.right;
+    }
+    if (node.right == null) {
+      return node.left;
+    }
+    Node<E> successor = node.right;
+    while (successor.left != null) {
+      successor = successor.left;
+    }
+    return balance(successor.value, node.left,
+        remove(node.right, successor.value));
+  }
+
+  private static <E> Node<E> balance(E value, Node<E> left, Node<E> right) {
+    int difference = height(left) - height(right);
+    if (difference > 1) {
+      if (height(left.left) < height(left.right)) {
+        left = rotateLeft(left.value, left.left, left.right);
+      }
+      return rotateRight(value, left, right);
+    } else if (difference < -1) {
+      if (height(right.right) < height(right.left)) {
+        right = rotateRight(right.value, right.left, right.right);
+      }
+      return rotateLeft(value, left, right);
+    }
+    return new Node<E>(value, left, right);
+  }
+
+  private static <E> Node<E> rotateLeft(E value, Node<E> left, Node<E> right) {
+    return new Node<E>(right.value, new Node<E>(value, left, right.left),
+        right.right);
+  }
+
+  private static <E> Node<E> rotateRight(E value, Node<E> left, Node<E> right) {
+    return new Node<E>(left.value, left.left, new Node<E>(value, left.right,
+        right));
+  }
+
+  private static <E> Node<E> build(List<E> sorted, int from, int to) {
+    if (from >= to) {
+      return null;
+    }
+    int middle = (from + to) >>> 1;
+    return new Node<E>(sorted.get(middle), build(sorted, from, middle),
+        build(sorted, middle + 1, to));
+  }
+
+  private static int height(Node<?> node) {
+    return (node == null ? 0 : node.height);
+  }
+
+  private static int size(Node<?> node) {
+    return (node == null ? 0 : node.size);
+  }
+
+  /**
+   * In-order traversal using an explicit stack of the left spine
+   */
+  private static final class TreeIterator<E> implements Iterator<E> {
+    private final Deque<Node<E>> stack = new ArrayDeque<Node<E>>();
+
+    TreeIterator(Node<E> root) {
+      pushLeft(root);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !stack.isEmpty();
+    }
+
+    @Override
+    public E next() {
+      if (stack.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      Node<E> node = stack.pop();
+      pushLeft(node.right);
+      return node.value;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void pushLeft(Node<E> node) {
+      while (node != null) {
+        stack.push(node);
+        node = node.left;
+      }
+    }
+  }
+}
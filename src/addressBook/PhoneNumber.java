@@ -1,16 +1,22 @@
 package addressBook;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import com.google.i18n.phonenumbers.NumberParseException;
-import com.google.i18n.phonenumbers.PhoneNumberUtil;
-
 /**
  * Represents an immutable phone number instance. While PhoneNumbers are
  * typically transferred as Strings as input and output of this class, the
  * internal representation ensures valid phone number syntax for storing and
- * serializing.
+ * serializing. Numbers are parsed with libphonenumber, but only the country
+ * code and national number (and the rarely used extension) are kept, so that
+ * searching and serializing never touch the library.
  * 
  * This class depends on Google's lipphonenumber library:
  * http://code.google.com/p/libphonenumber/
@@ -21,16 +27,34 @@ import com.google.i18n.phonenumbers.PhoneNumberUtil;
  */
 public final class PhoneNumber {
 
-  private final com.google.i18n.phonenumbers.Phonenumber
-      .PhoneNumber phoneNumber;
+  // The parts of the parsed number that are kept; the libphonenumber object
+  // itself is discarded after parsing
+  private final int countryCode;
+  private final long nationalNumber;
+  private final boolean italianLeadingZero;
+  private final String extension;
+
+  // The region assumed by createNew and tryCreateNew
+  static final String DEFAULT_REGION = "US";
 
-  private static final PhoneNumberUtil phoneUtil = PhoneNumberUtil
-      .getInstance();
+  // The canonical digit string, created on first use. Like String.hashCode
+  // this is a racy but benign cache: every thread computes the same value.
+  private String digits;
 
   // Not publicly instantiable
-  private PhoneNumber(
-      com.google.i18n.phonenumbers.Phonenumber.PhoneNumber number) {
-    phoneNumber = number;
+  private PhoneNumber(int countryCode, long nationalNumber,
+      boolean italianLeadingZero, String extension) {
+    this.countryCode = countryCode;
+    this.nationalNumber = nationalNumber;
+    this.italianLeadingZero = italianLeadingZero;
+    this.extension = extension;
+  }
+
+  // Keeps the parts of a number parsed by PhoneNumberParser
+  PhoneNumber(com.google.i18n.phonenumbers.Phonenumber.PhoneNumber number) {
+    this(number.getCountryCode(), number.getNationalNumber(), number
+        .isItalianLeadingZero(), (number.hasExtension() ? number
+        .getExtension() : null));
   }
 
   /**
@@ -42,13 +66,12 @@ public final class PhoneNumber {
    * @throws Exception if the number cannot be parsed or is invalid
    */
   public static PhoneNumber createNew(String phoneNumber) throws Exception {
-    try {
-      return new PhoneNumber(phoneUtil.parse(phoneNumber, "US"));
-    } catch (NumberParseException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+    PhoneNumberParseResult result = PhoneNumberParser.parse(phoneNumber,
+        DEFAULT_REGION);
+    if (!result.isSuccess()) {
       throw new Exception("Cannot Parse Number");
     }
+    return result.getPhoneNumber();
   } 
 
   /**
@@ -61,21 +84,151 @@ public final class PhoneNumber {
    * @return an immutable PhoneNumber or null (on error)
    */
   public static PhoneNumber tryCreateNew(String phoneNumber) {
-    try {
-      return new PhoneNumber(phoneUtil.parse(phoneNumber, "US"));
-    } catch (NumberParseException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-      return null;
+    return PhoneNumberParser.parse(phoneNumber, DEFAULT_REGION)
+        .getPhoneNumber();
+  }
+
+  /**
+   * Parses many phone numbers at once, e.g. for a bulk import. This is
+   * equivalent to {@code parseAll(phoneNumbers, defaultRegion, pool)} with a
+   * shared pool that has one thread per processor.
+   * 
+   * @param phoneNumbers string representations of phone numbers; elements
+   * may be null
+   * @param defaultRegion the two letter (ISO 3166-1) region code, e.g. "US",
+   * assumed for numbers that do not start with '+' and a country code
+   * @return one result per input string, in the same order
+   */
+  public static List<PhoneNumberParseResult> parseAll(
+      List<String> phoneNumbers, String defaultRegion) {
+    return parseAll(phoneNumbers, defaultRegion, DefaultPool.INSTANCE);
+  }
+
+  /**
+   * Parses many phone numbers at once, e.g. for a bulk import. Large lists
+   * are split up and parsed in parallel on the supplied pool. Strings that
+   * cannot be parsed do not throw exceptions; their result describes the
+   * error instead. Recently parsed strings are remembered in a bounded cache,
+   * which is shared with {@code createNew} and {@code tryCreateNew}, so
+   * repeated numbers are only parsed once.
+   * 
+   * @param phoneNumbers string representations of phone numbers; elements
+   * may be null
+   * @param defaultRegion the two letter (ISO 3166-1) region code, e.g. "US",
+   * assumed for numbers that do not start with '+' and a country code
+   * @param pool the pool to parse on
+   * @return one result per input string, in the same order
+   */
+  public static List<PhoneNumberParseResult> parseAll(
+      List<String> phoneNumbers, String defaultRegion, ForkJoinPool pool) {
+    if (phoneNumbers == null) {
+      throw new IllegalArgumentException(
+          "phoneNumbers is not allowed to be null");
+    }
+    if (defaultRegion == null) {
+      throw new IllegalArgumentException(
+          "defaultRegion is not allowed to be null");
+    }
+    if (pool == null) {
+      throw new IllegalArgumentException("pool is not allowed to be null");
+    }
+    return PhoneNumberParser.parseAll(phoneNumbers, defaultRegion, pool);
+  }
+
+  /**
+   * Re-creates a PhoneNumber from its numeric parts without parsing, e.g. when
+   * reading a binary snapshot.
+   * 
+   * @param countryCode the country calling code
+   * @param nationalNumber the national significant number
+   * @return an immutable PhoneNumber
+   */
+  static PhoneNumber fromParts(int countryCode, long nationalNumber) {
+    return new PhoneNumber(countryCode, nationalNumber, false, null);
+  }
+
+  /**
+   * Gets the country calling code of this PhoneNumber
+   * @return the country code, e.g. 1 for US numbers
+   */
+  int getCountryCode() {
+    return countryCode;
+  }
+
+  /**
+   * Gets the national significant number of this PhoneNumber
+   * @return the national number as a long
+   */
+  long getNationalNumber() {
+    return nationalNumber;
+  }
+
+  /**
+   * The greatest number of digits of a national number written as in
+   * {@link #asString()}
+   */
+  static final int MAX_DIGITS = 19;
+
+  /**
+   * Tests whether a query consists of decimal digits only, as any text
+   * contained in {@link #asString()} does
+   * @param query the text to test
+   * @return true if the query is empty or all digits
+   */
+  static boolean isDigits(String query) {
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
     }
+    return true;
   }
 
   /**
-   * Gets a the canonical simple string representation of this PhoneNumber
+   * Tests whether a national number written as in {@link #asString()}
+   * contains a query, without creating a String. This is used by the stores
+   * that keep phone numbers as plain numbers rather than PhoneNumber objects.
+   * @param nationalNumber a non-negative national number
+   * @param query the text to look for
+   * @param digits a scratch buffer of at least {@link #MAX_DIGITS} chars
+   * @return true if {@code Long.toString(nationalNumber).contains(query)}
+   */
+  static boolean digitsContain(long nationalNumber, String query,
+      char[] digits) {
+    // Written backwards from the end of the buffer
+    int end = digits.length;
+    int start = end;
+    long number = nationalNumber;
+    do {
+      digits[--start] = (char) ('0' + number % 10);
+      number /= 10;
+    } while (number > 0);
+    int length = query.length();
+    for (int i = start; i <= end - length; i++) {
+      int j = 0;
+      while (j < length && digits[i + j] == query.charAt(j)) {
+        j++;
+      }
+      if (j == length) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets a the canonical simple string representation of this PhoneNumber.
+   * The string is created once and then returned by every call.
    * @return a string representing the phonenumber
    */
   public String asString() {
-    return "" + phoneNumber.getNationalNumber();
+    String result = digits;
+    if (result == null) {
+      result = Long.toString(nationalNumber);
+      digits = result;
+    }
+    return result;
   }
 
   /**
@@ -85,11 +238,21 @@ public final class PhoneNumber {
    */
   @Override
   public String toString() {
-    return phoneNumber.toString();
+    // Same format as libphonenumber's PhoneNumber.toString()
+    StringBuilder description = new StringBuilder();
+    description.append("Country Code: ").append(countryCode);
+    description.append(" National Number: ").append(nationalNumber);
+    if (italianLeadingZero) {
+      description.append(" Leading Zero: true");
+    }
+    if (extension != null) {
+      description.append(" Extension: ").append(extension);
+    }
+    return description.toString();
   }
 
   static final String XML_NAME = "PhoneNumber";
-  private static final String NUMBER_XML_NAME = "FormattedString";
+  static final String NUMBER_XML_NAME = "FormattedString";
   
   /**
    * Serializes this phone number to an XML Element given the provided Document
@@ -105,6 +268,18 @@ public final class PhoneNumber {
     newElement.setAttribute(NUMBER_XML_NAME, asString());
     return newElement;
   }
+
+  /**
+   * Serializes this phone number using the provided streaming writer. The
+   * output is identical to serializing {@link #toXmlElement(Document doc)}.
+   * @param writer the writer to append the phone number element to
+   * @throws IOException
+   */
+  void writeXml(XmlWriter writer) throws IOException {
+    writer.startElement(XML_NAME);
+    writer.attribute(NUMBER_XML_NAME, asString());
+    writer.endElement(XML_NAME);
+  }
   
   /**
    * Deserializes a phone number from the supplied XML element.
@@ -115,5 +290,20 @@ public final class PhoneNumber {
     String number = e.getAttribute(NUMBER_XML_NAME);
     return PhoneNumber.tryCreateNew(number);
   }
+
+  /**
+   * Deserializes a phone number from a streaming XML reader. This is the
+   * streaming counterpart of {@link #fromXml(Element e)}.
+   * @param reader a reader positioned on the start of a PhoneNumber element;
+   * on return it is positioned on the matching end element
+   * @return a PhoneNumber parsed from the XML
+   * @throws XMLStreamException
+   */
+  static PhoneNumber fromXml(XMLStreamReader reader)
+      throws XMLStreamException {
+    String number = StaxSupport.attribute(reader, NUMBER_XML_NAME);
+    StaxSupport.skipElement(reader);
+    return PhoneNumber.tryCreateNew(number);
+  }
   
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package addressBook;
+
+/**
+ * The outcome of parsing one string with
+ * {@link PhoneNumber#parseAll(java.util.List, String)}: either the parsed
+ * {@link PhoneNumber} or the reason the string could not be parsed. Results
+ * are immutable.
+ *
+ * @author ck1456@nyu.edu
+ */
+public final class PhoneNumberParseResult {
+
+  /**
+   * The reasons a string cannot be parsed as a phone number
+   */
+  public enum Error {
+    /**
+     * The number has no valid country calling code, e.g. it lacks a leading
+     * '+' and no (valid) default region was given
+     */
+    INVALID_COUNTRY_CODE,
+    /**
+     * The string is null or does not look like a phone number
+     */
+    NOT_A_NUMBER,
+    /**
+     * The number is too short after an international dialing prefix
+     */
+    TOO_SHORT_AFTER_IDD,
+    /**
+     * The national number is too short
+     */
+    TOO_SHORT_NSN,
+    /**
+     * The string is too long to be a phone number
+     */
+    TOO_LONG
+  }
+
+  private final String input;
+  private final PhoneNumber phoneNumber;
+  private final Error error;
+  private final String errorMessage;
+
+  private PhoneNumberParseResult(String input, PhoneNumber phoneNumber,
+      Error error, String errorMessage) {
+    this.input = input;
+    this.phoneNumber = phoneNumber;
+    this.error = error;
+    this.errorMessage = errorMessage;
+  }
+
+  static PhoneNumberParseResult success(String input, PhoneNumber phoneNumber) {
+    return new PhoneNumberParseResult(input, phoneNumber, null, null);
+  }
+
+  static PhoneNumberParseResult failure(String input, Error error,
+      String errorMessage) {
+    return new PhoneNumberParseResult(input, null, error, errorMessage);
+  }
+
+  /**
+   * Gets the string that was parsed
+   * @return the (possibly null) input string
+   */
+  public String getInput() {
+    return input;
+  }
+
+  /**
+   * Indicates whether the input was parsed successfully
+   * @return true if {@link #getPhoneNumber()} holds the parsed number
+   */
+  public boolean isSuccess() {
+    return phoneNumber != null;
+  }
+
+  /**
+   * Gets the parsed phone number
+   * @return the phone number, or null if parsing failed
+   */
+  public PhoneNumber getPhoneNumber() {
+    return phoneNumber;
+  }
+
+  /**
+   * Gets the reason parsing failed
+   * @return the reason, or null if parsing succeeded
+   */
+  public Error getError() {
+    return error;
+  }
+
+  /**
+   * Gets a human readable description of why parsing failed
+   * @return the description, or null if parsing succeeded
+   */
+  public String getErrorMessage() {
+    return errorMessage;
+  }
+
+  /**
+   * Returns a description of this result, e.g. "2125140098" for a success or
+   * "abc: NOT_A_NUMBER" for a failure
+   */
+  @Override
+  public String toString() {
+    if (isSuccess()) {
+      return phoneNumber.asString();
+    }
+    return String.format("%s: %s", input, error);
+  }
+}
@@ -0,0 +1,175 @@
+package addressBook;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+
+/**
+ * Parses phone numbers with libphonenumber. Results, including failures, are
+ * kept in a bounded least-recently-used cache, because imports typically
+ * contain the same numbers many times (e.g. a company switchboard). The cache
+ * is split into independently locked segments so that parallel parsing does
+ * not contend on a single lock. Failures are reported as results rather than
+ * exceptions, so no stack traces are created or printed.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class PhoneNumberParser {
+
+  /**
+   * The maximum number of results held by the cache
+   */
+  static final int CACHE_CAPACITY = 4096;
+
+  private static final int SEGMENTS = 16;
+
+  // Lists with fewer numbers than this are parsed on the calling thread
+  private static final int SEQUENTIAL_THRESHOLD = 256;
+
+  private static final PhoneNumberUtil phoneUtil = PhoneNumberUtil
+      .getInstance();
+
+  private static final ResultCache[] cache = new ResultCache[SEGMENTS];
+  static {
+    for (int i = 0; i < SEGMENTS; i++) {
+      cache[i] = new ResultCache(CACHE_CAPACITY / SEGMENTS);
+    }
+  }
+
+  // Not instantiable
+  private PhoneNumberParser() {
+    // No-op
+  }
+
+  /**
+   * Parses a single phone number, using the cache
+   *
+   * @param input
+   *          the (possibly null) string to parse
+   * @param defaultRegion
+   *          the two letter region code assumed for numbers without a leading
+   *          '+' and country code
+   * @return the parse result
+   */
+  static PhoneNumberParseResult parse(String input, String defaultRegion) {
+    if (input == null) {
+      return PhoneNumberParseResult.failure(null,
+          PhoneNumberParseResult.Error.NOT_A_NUMBER,
+          "The phone number supplied was null.");
+    }
+    String key = defaultRegion + ':' + input;
+    ResultCache segment = cache[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+    PhoneNumberParseResult result;
+    synchronized (segment) {
+      result = segment.get(key);
+    }
+    if (result == null) {
+      result = parseUncached(input, defaultRegion);
+      synchronized (segment) {
+        segment.put(key, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Parses many phone numbers, in parallel if there are enough of them
+   *
+   * @param inputs
+   *          the strings to parse
+   * @param defaultRegion
+   *          the region assumed for numbers without a country code
+   * @param pool
+   *          the pool to parse on
+   * @return one result per input, in the same order
+   */
+  static List<PhoneNumberParseResult> parseAll(List<String> inputs,
+      String defaultRegion, ForkJoinPool pool) {
+    String[] strings = inputs.toArray(new String[inputs.size()]);
+    PhoneNumberParseResult[] results =
+        new PhoneNumberParseResult[strings.length];
+    ParseTask task = new ParseTask(strings, defaultRegion, results, 0,
+        strings.length);
+    if (strings.length < SEQUENTIAL_THRESHOLD) {
+      task.compute();
+    } else {
+      pool.invoke(task);
+    }
+    return Arrays.asList(results);
+  }
+
+  private static PhoneNumberParseResult parseUncached(String input,
+      String defaultRegion) {
+    try {
+      PhoneNumber phoneNumber = new PhoneNumber(phoneUtil.parse(input,
+          defaultRegion));
+      return PhoneNumberParseResult.success(input, phoneNumber);
+    } catch (NumberParseException e) {
+      return PhoneNumberParseResult.failure(input,
+          PhoneNumberParseResult.Error.valueOf(e.getErrorType().name()),
+          e.getMessage());
+    }
+  }
+
+  /**
+   * A segment of the result cache, evicting the least recently used result
+   */
+  private static final class ResultCache extends
+      LinkedHashMap<String, PhoneNumberParseResult> {
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    ResultCache(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(
+        Map.Entry<String, PhoneNumberParseResult> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  /**
+   * Parses a range of the inputs, splitting it in halves while it is large
+   */
+  private static final class ParseTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final String[] inputs;
+    private final String defaultRegion;
+    private final PhoneNumberParseResult[] results;
+    private final int from;
+    private final int to;
+
+    ParseTask(String[] inputs, String defaultRegion,
+        PhoneNumberParseResult[] results, int from, int to) {
+      this.inputs = inputs;
+      this.defaultRegion = defaultRegion;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= SEQUENTIAL_THRESHOLD) {
+        for (int i = from; i < to; i++) {
+          results[i] = parse(inputs[i], defaultRegion);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new ParseTask(inputs, defaultRegion, results, from, middle),
+          new ParseTask(inputs, defaultRegion, results, middle, to));
+    }
+  }
+}
@@ -1,5 +1,12 @@
 package addressBook;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.w3c.dom.*;
 
 /**
@@ -27,7 +34,10 @@ public class PostalAddress {
    * @param addressLine1 the new primary line of the address
    */
   public void setAddressLine1(String addressLine1) {
+    checkWritable();
+    String old = this.addressLine1;
     this.addressLine1 = (addressLine1 == null ? "" : addressLine1);
+    fireChanged(old, this.addressLine1);
   }
 
   private String addressLine2 = "";
@@ -46,7 +56,11 @@ public class PostalAddress {
    * @param addressLine2 the new second line of the address
    */
   public void setAddressLine2(String addressLine2) {
-    this.addressLine2 = (addressLine2 == null ? "" : addressLine2);
+    checkWritable();
+    String old = this.addressLine2;
+    this.addressLine2 = StringPool.intern(addressLine2 == null ? ""
+        : addressLine2);
+    fireChanged(old, this.addressLine2);
   }
 
   private String city = "";
@@ -65,7 +79,10 @@ public class PostalAddress {
    * @param city the new city for the address
    */
   public void setCity(String city) {
-    this.city = (city == null ? "" : city);
+    checkWritable();
+    String old = this.city;
+    this.city = StringPool.intern(city == null ? "" : city);
+    fireChanged(old, this.city);
   }
 
   private String state = "";
@@ -84,7 +101,10 @@ public class PostalAddress {
    * @param state the new state for the address
    */
   public void setState(String state) {
-    this.state = (state == null ? "" : state);
+    checkWritable();
+    String old = this.state;
+    this.state = StringPool.intern(state == null ? "" : state);
+    fireChanged(old, this.state);
   }
 
   private String country = "";
@@ -103,7 +123,10 @@ public class PostalAddress {
    * @param country the new country for this address
    */
   public void setCountry(String country) {
-    this.country = (country == null ? "" : country);
+    checkWritable();
+    String old = this.country;
+    this.country = StringPool.intern(country == null ? "" : country);
+    fireChanged(old, this.country);
   }
 
   private String postalCode = "";
@@ -122,7 +145,11 @@ public class PostalAddress {
    * @param postalCode the new postal code for this address
    */
   public void setPostalCode(String postalCode) {
-    this.postalCode = (postalCode == null ? "" : postalCode);
+    checkWritable();
+    String old = this.postalCode;
+    this.postalCode = StringPool.intern(postalCode == null ? ""
+        : postalCode);
+    fireChanged(old, this.postalCode);
   }
 
   /**
@@ -173,6 +200,63 @@ public class PostalAddress {
         other.country, other.postalCode);
   }
 
+  // Contacts to notify about changes, or null when nobody is listening
+  private List<Contact> owners;
+
+  /**
+   * Registers a contact that refers to this address so that it is notified
+   * when one of the fields is changed.
+   * @param owner the contact to notify
+   */
+  void addOwner(Contact owner) {
+    if (owners == null) {
+      owners = new CopyOnWriteArrayList<Contact>();
+    }
+    owners.add(owner);
+  }
+
+  /**
+   * Unregisters a contact added with {@link #addOwner(Contact)}.
+   * @param owner the contact to stop notifying
+   */
+  void removeOwner(Contact owner) {
+    if (owners != null && owners.remove(owner) && owners.isEmpty()) {
+      owners = null;
+    }
+  }
+
+  /**
+   * Notifies the owners that a field changed from one value to another, unless
+   * the values are equal
+   */
+  private void fireChanged(String oldValue, String newValue) {
+    if (owners != null && !oldValue.equals(newValue)) {
+      for (Contact owner : owners) {
+        owner.fireChanged(SearchField.POSTAL_ADDRESS);
+      }
+    }
+  }
+
+  // Set on the copies held by an AddressBookSnapshot, which must not change
+  private boolean readOnly;
+
+  /**
+   * Creates a copy of this address that rejects all modifications
+   * @return a read-only copy of this address
+   */
+  PostalAddress readOnlyCopy() {
+    PostalAddress copy = new PostalAddress(this);
+    copy.readOnly = true;
+    return copy;
+  }
+
+  private void checkWritable() {
+    if (readOnly) {
+      throw new UnsupportedOperationException(
+          "Read-only contacts cannot be modified");
+    }
+  }
+
   /**
    * A PostalAddress is equal to another address if all of the contained fields
    * are equal to the other.
@@ -248,11 +332,38 @@ public class PostalAddress {
     }
     PostalAddress newAddress = new PostalAddress();
     newAddress.addressLine1 = e.getAttribute("AddressLine1");
-    newAddress.addressLine2 = e.getAttribute("AddressLine2");
-    newAddress.city = e.getAttribute("City");
-    newAddress.state = e.getAttribute("State");
-    newAddress.country = e.getAttribute("Country");
-    newAddress.postalCode = e.getAttribute("PostalCode");
+    newAddress.addressLine2 = StringPool.intern(
+        e.getAttribute("AddressLine2"));
+    newAddress.city = StringPool.intern(e.getAttribute("City"));
+    newAddress.state = StringPool.intern(e.getAttribute("State"));
+    newAddress.country = StringPool.intern(e.getAttribute("Country"));
+    newAddress.postalCode = StringPool.intern(
+        e.getAttribute("PostalCode"));
+    return newAddress;
+  }
+
+  /**
+   * Deserializes a postal address from a streaming XML reader. This is the
+   * streaming counterpart of {@link #fromXml(Element e)}.
+   * @param reader a reader positioned on the start of a PostalAddress
+   * element; on return it is positioned on the matching end element
+   * @return a PostalAddress with all fields represented by the XML populated
+   * @throws XMLStreamException
+   */
+  static PostalAddress fromXml(XMLStreamReader reader)
+      throws XMLStreamException {
+    PostalAddress newAddress = new PostalAddress();
+    newAddress.addressLine1 = StaxSupport.attribute(reader, "AddressLine1");
+    newAddress.addressLine2 = StringPool.intern(
+        StaxSupport.attribute(reader, "AddressLine2"));
+    newAddress.city = StringPool.intern(StaxSupport.attribute(reader, "City"));
+    newAddress.state = StringPool.intern(
+        StaxSupport.attribute(reader, "State"));
+    newAddress.country = StringPool.intern(
+        StaxSupport.attribute(reader, "Country"));
+    newAddress.postalCode = StringPool.intern(
+        StaxSupport.attribute(reader, "PostalCode"));
+    StaxSupport.skipElement(reader);
     return newAddress;
   }
  
@@ -275,4 +386,22 @@ public class PostalAddress {
     newElement.setAttribute("PostalCode", postalCode);
     return newElement;
   }
+
+  /**
+   * Serializes the postal address using the provided streaming writer. The
+   * output is identical to serializing {@link #toXmlElement(Document doc)}.
+   * @param writer the writer to append the postal address element to
+   * @throws IOException
+   */
+  void writeXml(XmlWriter writer) throws IOException {
+    writer.startElement(XML_NAME);
+    // Attributes are written in the (alphabetical) order used by the DOM
+    writer.attribute("AddressLine1", addressLine1);
+    writer.attribute("AddressLine2", addressLine2);
+    writer.attribute("City", city);
+    writer.attribute("Country", country);
+    writer.attribute("PostalCode", postalCode);
+    writer.attribute("State", state);
+    writer.endElement(XML_NAME);
+  }
 }
\ No newline at end of file
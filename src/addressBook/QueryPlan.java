@@ -0,0 +1,258 @@
+package addressBook;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A way of finding the candidate contacts for a search, chosen by the
+ * {@link QueryPlanner}. Every plan yields a superset of the contacts that
+ * match the search, which are then checked with the search filter.
+ *
+ * Costs are estimated in the unit of {@link ICostedSearchFilter#getCost()},
+ * i.e. the cost of testing one field of one contact.
+ *
+ * @author ck1456@nyu.edu
+ */
+abstract class QueryPlan {
+
+  /**
+   * Finds the candidate contacts
+   *
+   * @return a superset of the contacts matching the search
+   */
+  abstract Collection<Contact> candidates();
+
+  /**
+   * Estimates the number of candidates
+   *
+   * @return the estimated size of {@link #candidates()}
+   */
+  abstract int estimatedRows();
+
+  /**
+   * Estimates the cost of finding the candidates
+   *
+   * @return the estimated cost
+   */
+  abstract double cost();
+
+  /**
+   * Indicates whether this plan visits every contact
+   *
+   * @return true for a full scan
+   */
+  boolean isScan() {
+    return false;
+  }
+
+  /**
+   * Appends a description of this plan, one line per step
+   *
+   * @param description
+   *          the text to append to
+   * @param indent
+   *          the indentation of this step
+   */
+  abstract void explain(StringBuilder description, String indent);
+
+  /**
+   * Visits all contacts of the AddressBook
+   */
+  static final class Scan extends QueryPlan {
+    private final Collection<Contact> contacts;
+
+    Scan(Collection<Contact> contacts) {
+      this.contacts = contacts;
+    }
+
+    @Override
+    Collection<Contact> candidates() {
+      return contacts;
+    }
+
+    @Override
+    int estimatedRows() {
+      return contacts.size();
+    }
+
+    @Override
+    double cost() {
+      return 0;
+    }
+
+    @Override
+    boolean isScan() {
+      return true;
+    }
+
+    @Override
+    void explain(StringBuilder description, String indent) {
+      description.append(indent).append("Scan all ").append(contacts.size())
+          .append(" contacts\n");
+    }
+  }
+
+  /**
+   * Looks up the contacts containing all trigrams of a query in one field
+   * group of the substring index
+   */
+  static final class IndexLookup extends QueryPlan {
+    private final TrigramIndex index;
+    private final SearchField field;
+    private final String query;
+    private final int estimatedRows;
+
+    IndexLookup(TrigramIndex index, SearchField field, String query) {
+      this.index = index;
+      this.field = field;
+      this.query = query;
+      estimatedRows = index.estimate(query, field);
+    }
+
+    @Override
+    Collection<Contact> candidates() {
+      return index.candidates(query, field);
+    }
+
+    @Override
+    int estimatedRows() {
+      return estimatedRows;
+    }
+
+    @Override
+    double cost() {
+      // Each candidate of the smallest posting set is checked against the
+      // posting sets of the other trigrams
+      return (double) estimatedRows
+          * (query.length() - TrigramIndex.GRAM_LENGTH + 1);
+    }
+
+    @Override
+    void explain(StringBuilder description, String indent) {
+      description.append(indent).append("Substring index lookup ")
+          .append(field).append(" \"").append(query).append("\" (~")
+          .append(estimatedRows).append(" rows, cost ")
+          .append(format(cost())).append(")\n");
+    }
+  }
+
+  /**
+   * Combines the candidates of several plans
+   */
+  private static abstract class Compound extends QueryPlan {
+    final List<QueryPlan> plans;
+
+    Compound(List<QueryPlan> plans) {
+      this.plans = plans;
+    }
+
+    @Override
+    double cost() {
+      double cost = 0;
+      for (QueryPlan plan : plans) {
+        cost += plan.cost() + plan.estimatedRows();
+      }
+      return cost;
+    }
+
+    abstract String name();
+
+    @Override
+    void explain(StringBuilder description, String indent) {
+      description.append(indent).append(name()).append(" (~")
+          .append(estimatedRows()).append(" rows, cost ")
+          .append(format(cost())).append(")\n");
+      for (QueryPlan plan : plans) {
+        plan.explain(description, indent + "  ");
+      }
+    }
+  }
+
+  /**
+   * Keeps the candidates found by all of several plans
+   */
+  static final class Intersection extends Compound {
+
+    /**
+     * @param plans
+     *          at least two plans, ordered by increasing estimated rows
+     */
+    Intersection(List<QueryPlan> plans) {
+      super(plans);
+    }
+
+    @Override
+    Collection<Contact> candidates() {
+      Collection<Contact> smallest = plans.get(0).candidates();
+      if (smallest.isEmpty()) {
+        return smallest;
+      }
+      List<Collection<Contact>> others = new ArrayList<Collection<Contact>>();
+      for (int i = 1; i < plans.size(); i++) {
+        others.add(plans.get(i).candidates());
+      }
+      Set<Contact> result = new LinkedHashSet<Contact>();
+      candidate: for (Contact c : smallest) {
+        for (Collection<Contact> other : others) {
+          if (!other.contains(c)) {
+            continue candidate;
+          }
+        }
+        result.add(c);
+      }
+      return result;
+    }
+
+    @Override
+    int estimatedRows() {
+      return plans.get(0).estimatedRows();
+    }
+
+    @Override
+    String name() {
+      return "Intersection";
+    }
+  }
+
+  /**
+   * Combines the candidates found by any of several plans
+   */
+  static final class Union extends Compound {
+
+    Union(List<QueryPlan> plans) {
+      super(plans);
+    }
+
+    @Override
+    Collection<Contact> candidates() {
+      Set<Contact> result = new LinkedHashSet<Contact>();
+      for (QueryPlan plan : plans) {
+        result.addAll(plan.candidates());
+      }
+      return (result.isEmpty() ? Collections.<Contact> emptySet() : result);
+    }
+
+    @Override
+    int estimatedRows() {
+      long rows = 0;
+      for (QueryPlan plan : plans) {
+        rows += plan.estimatedRows();
+      }
+      return (int) Math.min(rows, Integer.MAX_VALUE);
+    }
+
+    @Override
+    String name() {
+      return "Union";
+    }
+  }
+
+  static String format(double cost) {
+    return String.format(Locale.ROOT, "%.1f", cost);
+  }
+}
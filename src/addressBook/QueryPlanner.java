@@ -0,0 +1,147 @@
+package addressBook;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Chooses how {@link AddressBook#search(String, ISearchFilter)} finds its
+ * candidates. The planner looks through the predefined {@link SearchFilters}
+ * and the compound filters built from them:
+ * <ul>
+ * <li>a single field filter with a query of at least three characters becomes
+ * a substring index lookup,</li>
+ * <li>a conjunction becomes the intersection of the lookups of those of its
+ * parts that have one,</li>
+ * <li>a disjunction becomes the union of the lookups of its parts, provided
+ * every part has one,</li>
+ * <li>{@code withQuery} and {@code withEstimates} filters are planned like the
+ * filter they wrap.</li>
+ * </ul>
+ * Negations and custom filters have no lookup. When no lookup exists, or when
+ * the estimated cost of the lookup and of checking its candidates exceeds the
+ * cost of checking every contact, all contacts are scanned.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class QueryPlanner {
+
+  private static final Comparator<QueryPlan> BY_ROWS =
+      new Comparator<QueryPlan>() {
+        @Override
+        public int compare(QueryPlan arg0, QueryPlan arg1) {
+          return (arg0.estimatedRows() < arg1.estimatedRows() ? -1 : (arg0
+              .estimatedRows() == arg1.estimatedRows() ? 0 : 1));
+        }
+      };
+
+  // Not instantiable
+  private QueryPlanner() {
+    // No-op
+  }
+
+  /**
+   * Chooses the cheapest plan for a search
+   *
+   * @param query
+   *          the search text
+   * @param filter
+   *          the search filter
+   * @param contacts
+   *          all contacts of the AddressBook
+   * @param index
+   *          the substring index, or null if it is not enabled
+   * @return the plan with the lowest estimated total cost
+   */
+  static QueryPlan plan(String query, ISearchFilter filter,
+      Collection<Contact> contacts, TrigramIndex index) {
+    QueryPlan scan = new QueryPlan.Scan(contacts);
+    if (index == null) {
+      return scan;
+    }
+    QueryPlan lookup = lookup(query, filter, index);
+    if (lookup == null || totalCost(lookup, filter) >= totalCost(scan, filter)) {
+      return scan;
+    }
+    return lookup;
+  }
+
+  /**
+   * Describes the plan chosen for a search
+   *
+   * @return a multi-line description of the plan and its estimated cost
+   */
+  static String explain(String query, ISearchFilter filter,
+      Collection<Contact> contacts, TrigramIndex index) {
+    QueryPlan plan = plan(query, filter, contacts, index);
+    StringBuilder description = new StringBuilder();
+    description.append("Filter ").append(filter).append(" with query ")
+        .append(query == null ? "null" : "\"" + query + "\"")
+        .append(" on ~").append(plan.estimatedRows())
+        .append(" candidates (total cost ")
+        .append(QueryPlan.format(totalCost(plan, filter))).append(")\n");
+    plan.explain(description, "  ");
+    return description.toString();
+  }
+
+  /**
+   * Estimates the cost of finding the candidates and checking each of them
+   * with the filter
+   */
+  private static double totalCost(QueryPlan plan, ISearchFilter filter) {
+    return plan.cost() + plan.estimatedRows() * SearchFilters.costOf(filter);
+  }
+
+  /**
+   * Builds an index based plan for a filter
+   *
+   * @return a plan yielding a superset of the matching contacts, or null if
+   *         the filter cannot be answered from the index
+   */
+  private static QueryPlan lookup(String query, ISearchFilter filter,
+      TrigramIndex index) {
+    if (filter instanceof SearchFilters.FixedQueryFilter) {
+      SearchFilters.FixedQueryFilter fixed =
+          (SearchFilters.FixedQueryFilter) filter;
+      return lookup(fixed.query(), fixed.filter(), index);
+    }
+    if (filter instanceof SearchFilters.EstimatedFilter) {
+      return lookup(query, ((SearchFilters.EstimatedFilter) filter).filter(),
+          index);
+    }
+    if (filter instanceof SearchFilters.AndFilter) {
+      List<QueryPlan> plans = new ArrayList<QueryPlan>();
+      for (ISearchFilter part : ((SearchFilters.AndFilter) filter).filters()) {
+        QueryPlan plan = lookup(query, part, index);
+        if (plan != null) {
+          plans.add(plan);
+        }
+      }
+      if (plans.isEmpty()) {
+        return null;
+      }
+      Collections.sort(plans, BY_ROWS);
+      return (plans.size() == 1 ? plans.get(0) : new QueryPlan.Intersection(
+          plans));
+    }
+    if (filter instanceof SearchFilters.OrFilter) {
+      List<QueryPlan> plans = new ArrayList<QueryPlan>();
+      for (ISearchFilter part : ((SearchFilters.OrFilter) filter).filters()) {
+        QueryPlan plan = lookup(query, part, index);
+        if (plan == null) {
+          return null;
+        }
+        plans.add(plan);
+      }
+      return (plans.size() == 1 ? plans.get(0) : new QueryPlan.Union(plans));
+    }
+
+    SearchField field = SearchField.forFilter(filter);
+    if (field != null && TrigramIndex.canLookUp(query)) {
+      return new QueryPlan.IndexLookup(index, field, query);
+    }
+    return null;
+  }
+}
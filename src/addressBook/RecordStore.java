@@ -0,0 +1,107 @@
+package addressBook;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only storage for the serialized contacts of an
+ * {@link OffHeapAddressBook}, in direct buffers outside of the Java heap.
+ * Records are written one after the other into chunks of {@link #CHUNK_SIZE}
+ * bytes, and are identified by an address combining the index of their chunk
+ * (high 32 bits) with their offset in it (low 32 bits). A record never spans
+ * two chunks. The memory of the chunks is released when the store is garbage
+ * collected.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class RecordStore {
+
+  static final int CHUNK_SIZE = 1 << 24;
+
+  private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+  private ByteBuffer current;
+
+  private long allocatedBytes = 0;
+
+  /**
+   * Appends a record
+   *
+   * @param record
+   *          an array holding the record
+   * @param length
+   *          the length of the record
+   * @return the address of the record
+   */
+  long append(byte[] record, int length) {
+    long address = reserve(length);
+    current.put(record, 0, length);
+    return address;
+  }
+
+  /**
+   * Appends a record copied from another buffer, e.g. a chunk of another
+   * store
+   *
+   * @param source
+   *          the buffer holding the record; its position is not changed
+   * @param offset
+   *          the position of the record in the buffer
+   * @param length
+   *          the length of the record
+   * @return the address of the record
+   */
+  long append(ByteBuffer source, int offset, int length) {
+    long address = reserve(length);
+    ByteBuffer record = source.duplicate();
+    record.limit(offset + length);
+    record.position(offset);
+    current.put(record);
+    return address;
+  }
+
+  /**
+   * Makes room for a record in the current chunk
+   *
+   * @return the address the record will have
+   */
+  private long reserve(int length) {
+    if (current == null || current.remaining() < length) {
+      current = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length));
+      chunks.add(current);
+      allocatedBytes += current.capacity();
+    }
+    return ((long) (chunks.size() - 1) << 32) | current.position();
+  }
+
+  /**
+   * Gets the chunk holding a record. Records are read with the absolute
+   * methods of the buffer, so the buffer may be read by many threads.
+   *
+   * @param address
+   *          the address of the record
+   * @return the chunk
+   */
+  ByteBuffer chunk(long address) {
+    return chunks.get((int) (address >>> 32));
+  }
+
+  /**
+   * Gets the offset of a record in its chunk
+   *
+   * @param address
+   *          the address of the record
+   * @return the offset
+   */
+  static int offset(long address) {
+    return (int) address;
+  }
+
+  /**
+   * @return the number of bytes allocated outside of the heap
+   */
+  long allocatedBytes() {
+    return allocatedBytes;
+  }
+}
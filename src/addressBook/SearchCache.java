@@ -0,0 +1,308 @@
+package addressBook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded cache of search results, evicting the least recently used results
+ * first. Results are invalidated precisely: a result is dropped when a contact
+ * it holds is removed or modified, or when a contact that is added or modified
+ * matches its query and filter. Other results stay valid.
+ *
+ * The cache is modified under the AddressBook write lock like any other
+ * observer, but is also read and filled by searches, so all access is
+ * synchronized on the cache. Every modification of the AddressBook increments
+ * a version, and a result is only stored if the version did not change while
+ * it was computed.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class SearchCache implements IContactObserver {
+
+  // Rough memory footprint of an entry without its results: the map entry,
+  // key, entry and array objects
+  static final int ENTRY_OVERHEAD = 128;
+
+  // Rough memory footprint of one result (array slot and bookkeeping)
+  static final int RESULT_SIZE = 48;
+
+  // Batches of added contacts larger than this drop all results
+  static final int BULK_INVALIDATION_THRESHOLD = 64;
+
+  private final int maxEntries;
+  private final long maxBytes;
+
+  private final LinkedHashMap<Key, Entry> entries =
+      new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+  // The keys of the results holding each contact
+  private final Map<Contact, Set<Key>> holders =
+      new HashMap<Contact, Set<Key>>();
+
+  private long version;
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long invalidations;
+
+  /**
+   * Creates an empty cache
+   *
+   * @param maxEntries
+   *          the maximum number of results to hold
+   * @param maxBytes
+   *          the maximum estimated memory to hold
+   */
+  SearchCache(int maxEntries, long maxBytes) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Looks up the result of a search
+   *
+   * @return a new list holding the cached result, or null if there is none
+   */
+  synchronized List<Contact> get(String query, ISearchFilter filter) {
+    Entry entry = entries.get(new Key(query, filter));
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return new ArrayList<Contact>(Arrays.asList(entry.results));
+  }
+
+  /**
+   * Gets the current version, to be passed to {@link #put} with the result
+   * of a search started afterwards
+   */
+  synchronized long version() {
+    return version;
+  }
+
+  /**
+   * Stores the result of a search, unless the AddressBook was modified since
+   * the supplied version was read
+   */
+  synchronized void put(String query, ISearchFilter filter,
+      List<Contact> results, long version) {
+    if (version != this.version) {
+      return;
+    }
+    Key key = new Key(query, filter);
+    Entry entry = new Entry(key, results.toArray(new Contact[results.size()]));
+    if (entry.bytes > maxBytes) {
+      return;
+    }
+    Entry replaced = entries.put(key, entry);
+    if (replaced != null) {
+      unlink(replaced);
+    }
+    link(entry);
+
+    Iterator<Entry> eldest = entries.values().iterator();
+    while (entries.size() > maxEntries || bytes > maxBytes) {
+      Entry evicted = eldest.next();
+      eldest.remove();
+      unlink(evicted);
+      evictions++;
+    }
+  }
+
+  /**
+   * Takes a consistent copy of the counters
+   */
+  synchronized SearchCacheStats stats() {
+    return new SearchCacheStats(hits, misses, evictions, invalidations,
+        entries.size(), bytes);
+  }
+
+  @Override
+  public synchronized void contactAdded(Contact contact) {
+    version++;
+    invalidateMatching(contact);
+  }
+
+  @Override
+  public synchronized void contactRemoved(Contact contact) {
+    version++;
+    invalidateHolding(contact);
+  }
+
+  @Override
+  public synchronized void batchApplied(Collection<Contact> added,
+      Collection<Contact> removed) {
+    version++;
+    if (added.size() > BULK_INVALIDATION_THRESHOLD) {
+      // Testing every result against every contact would cost more than
+      // repeating the searches
+      invalidations += entries.size();
+      entries.clear();
+      holders.clear();
+      bytes = 0;
+      return;
+    }
+    for (Contact c : removed) {
+      invalidateHolding(c);
+    }
+    for (Contact c : added) {
+      invalidateMatching(c);
+    }
+  }
+
+  @Override
+  public synchronized void contactChanged(Contact contact, SearchField field) {
+    version++;
+    invalidateHolding(contact, field);
+    invalidateMatching(contact, field);
+  }
+
+  private void invalidateHolding(Contact contact) {
+    invalidateHolding(contact, null);
+  }
+
+  private void invalidateMatching(Contact contact) {
+    invalidateMatching(contact, null);
+  }
+
+  /**
+   * Drops the results holding a contact
+   *
+   * @param field
+   *          the changed field group, or null if the contact was removed
+   */
+  private void invalidateHolding(Contact contact, SearchField field) {
+    Set<Key> keys = holders.get(contact);
+    if (keys == null) {
+      return;
+    }
+    for (Key key : new ArrayList<Key>(keys)) {
+      if (!key.isAffectedBy(field)) {
+        continue;
+      }
+      unlink(entries.remove(key));
+      invalidations++;
+    }
+  }
+
+  /**
+   * Drops the results whose filter matches a contact
+   *
+   * @param field
+   *          the changed field group, or null if the contact was added
+   */
+  private void invalidateMatching(Contact contact, SearchField field) {
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      if (!entry.key.isAffectedBy(field)) {
+        continue;
+      }
+      boolean matches;
+      try {
+        matches = entry.key.filter.isMatch(entry.key.query, contact);
+      } catch (RuntimeException e) {
+        // A custom filter failed; the result may be affected
+        matches = true;
+      }
+      if (matches) {
+        it.remove();
+        unlink(entry);
+        invalidations++;
+      }
+    }
+  }
+
+  private void link(Entry entry) {
+    bytes += entry.bytes;
+    for (Contact c : entry.results) {
+      Set<Key> keys = holders.get(c);
+      if (keys == null) {
+        keys = new HashSet<Key>();
+        holders.put(c, keys);
+      }
+      keys.add(entry.key);
+    }
+  }
+
+  private void unlink(Entry entry) {
+    bytes -= entry.bytes;
+    for (Contact c : entry.results) {
+      Set<Key> keys = holders.get(c);
+      keys.remove(entry.key);
+      if (keys.isEmpty()) {
+        holders.remove(c);
+      }
+    }
+  }
+
+  /**
+   * A query together with its filter
+   */
+  private static final class Key {
+    final String query;
+    final ISearchFilter filter;
+    // The only field group the filter looks at, if known
+    final SearchField field;
+
+    Key(String query, ISearchFilter filter) {
+      this.query = query;
+      this.filter = filter;
+      field = SearchField.forFilter(filter);
+    }
+
+    /**
+     * Tests whether a change of a field group can change the result. Only
+     * the predefined single field filters are known to depend on one field
+     * group.
+     *
+     * @param changed
+     *          the changed field group, or null for any change
+     */
+    boolean isAffectedBy(SearchField changed) {
+      return (changed == null || field == null || field == changed);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return (query == null ? other.query == null : query.equals(other.query))
+          && filter.equals(other.filter);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (query == null ? 0 : query.hashCode()) + filter.hashCode();
+    }
+  }
+
+  /**
+   * A cached result and its estimated memory footprint
+   */
+  private static final class Entry {
+    final Key key;
+    final Contact[] results;
+    final long bytes;
+
+    Entry(Key key, Contact[] results) {
+      this.key = key;
+      this.results = results;
+      bytes = ENTRY_OVERHEAD
+          + 2L * (key.query == null ? 0 : key.query.length())
+          + (long) RESULT_SIZE * results.length;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package addressBook;
+
+/**
+ * Counters of the search result cache of an AddressBook, see
+ * {@link AddressBook#enableSearchCache(int, long)}. The counters are taken at
+ * one point in time and do not change afterwards. They start at zero when the
+ * cache is enabled.
+ *
+ * @author ck1456@nyu.edu
+ */
+public final class SearchCacheStats {
+
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final long invalidationCount;
+  private final int entryCount;
+  private final long estimatedBytes;
+
+  SearchCacheStats(long hitCount, long missCount, long evictionCount,
+      long invalidationCount, int entryCount, long estimatedBytes) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.invalidationCount = invalidationCount;
+    this.entryCount = entryCount;
+    this.estimatedBytes = estimatedBytes;
+  }
+
+  /**
+   * Gets the number of searches answered from the cache
+   *
+   * @return the number of cache hits
+   */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Gets the number of searches that were not found in the cache
+   *
+   * @return the number of cache misses
+   */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Gets the fraction of searches answered from the cache
+   *
+   * @return the hit rate, or 0 if nothing has been searched
+   */
+  public double getHitRate() {
+    long requests = hitCount + missCount;
+    return (requests == 0 ? 0 : (double) hitCount / requests);
+  }
+
+  /**
+   * Gets the number of results dropped to stay within the limits of the cache
+   *
+   * @return the number of evictions
+   */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Gets the number of results dropped because a modification of the
+   * AddressBook affected them
+   *
+   * @return the number of invalidations
+   */
+  public long getInvalidationCount() {
+    return invalidationCount;
+  }
+
+  /**
+   * Gets the number of results currently held
+   *
+   * @return the number of cache entries
+   */
+  public int getEntryCount() {
+    return entryCount;
+  }
+
+  /**
+   * Gets an estimate of the memory currently held by the cache, not counting
+   * the contacts themselves
+   *
+   * @return the estimated size in bytes
+   */
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "[SearchCacheStats: %d hits, %d misses, %d evictions, "
+            + "%d invalidations, %d entries, ~%d bytes]", hitCount, missCount,
+        evictionCount, invalidationCount, entryCount, estimatedBytes);
+  }
+}
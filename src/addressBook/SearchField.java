@@ -0,0 +1,102 @@
+package addressBook;
+
+/**
+ * The groups of contact fields that the predefined single field
+ * {@link SearchFilters} look at. Indexes use this to extract the same text
+ * that a filter would inspect, so that an index lookup finds exactly the
+ * contacts the filter would match.
+ *
+ * @author ck1456@nyu.edu
+ */
+enum SearchField {
+
+  NAME(SearchFilters.Name) {
+    @Override
+    String[] valuesOf(Contact contact) {
+      ContactName name = contact.getName();
+      return new String[] { name.getFirstName(), name.getLastName() };
+    }
+  },
+
+  POSTAL_ADDRESS(SearchFilters.PostalAddress) {
+    @Override
+    String[] valuesOf(Contact contact) {
+      PostalAddress address = contact.getPostalAddress();
+      if (address == null) {
+        return NO_VALUES;
+      }
+      return new String[] { address.getAddressLine1(),
+          address.getAddressLine2(), address.getCity(), address.getState(),
+          address.getCountry(), address.getPostalCode() };
+    }
+  },
+
+  EMAIL_ADDRESS(SearchFilters.EmailAddress) {
+    @Override
+    String[] valuesOf(Contact contact) {
+      return new String[] { contact.getEmailAddress() };
+    }
+  },
+
+  PHONE_NUMBER(SearchFilters.PhoneNumber) {
+    @Override
+    String[] valuesOf(Contact contact) {
+      PhoneNumber phoneNumber = contact.getPhoneNumber();
+      if (phoneNumber == null) {
+        return NO_VALUES;
+      }
+      return new String[] { phoneNumber.asString() };
+    }
+  },
+
+  NOTE(SearchFilters.Note) {
+    @Override
+    String[] valuesOf(Contact contact) {
+      return new String[] { contact.getNote() };
+    }
+  };
+
+  private static final String[] NO_VALUES = new String[0];
+
+  private final ISearchFilter filter;
+
+  private SearchField(ISearchFilter filter) {
+    this.filter = filter;
+  }
+
+  /**
+   * Gets the predefined filter that searches this group of fields
+   *
+   * @return one of the single field filters in {@link SearchFilters}
+   */
+  ISearchFilter getFilter() {
+    return filter;
+  }
+
+  /**
+   * Gets the current text of the fields in this group for a contact.
+   *
+   * @param contact
+   *          the contact to inspect
+   * @return the field values; individual values may be null
+   */
+  abstract String[] valuesOf(Contact contact);
+
+  /**
+   * Finds the field group searched by one of the predefined single field
+   * filters.
+   *
+   * @param filter
+   *          any search filter
+   * @return the field group, or null if the filter is not one of the
+   *         predefined single field filters
+   */
+  static SearchField forFilter(ISearchFilter filter) {
+    for (SearchField field : values()) {
+      if (field.filter == filter) {
+        return field;
+      }
+    }
+    return null;
+  }
+}
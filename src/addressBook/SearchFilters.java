@@ -1,10 +1,34 @@
 package addressBook;
 
+import java.util.Arrays;
+import java.util.Comparator;
+
 /**
  * Exposes several predefined classes which implement {@link ISearchFilter} to
  * support determining which Contact records match given text on a specific
  * field  
  * 
+ * Filters can be combined with {@link #and(ISearchFilter...)},
+ * {@link #or(ISearchFilter...)} and {@link #not(ISearchFilter)}, and
+ * {@link #withQuery(ISearchFilter, String)} fixes the text a filter looks for,
+ * so that each part of a compound filter can search for something different:
+ * 
+ * <pre>
+ * {
+ *   &#064;code
+ *   ISearchFilter filter = SearchFilters.and(
+ *       SearchFilters.withQuery(SearchFilters.Name, &quot;Smith&quot;),
+ *       SearchFilters.withQuery(SearchFilters.PostalAddress, &quot;Boston&quot;),
+ *       SearchFilters.not(SearchFilters.withQuery(SearchFilters.Note, &quot;old&quot;)));
+ *   List&lt;Contact&gt; results = addressBook.search(null, filter);
+ * }
+ * </pre>
+ * 
+ * All predefined and compound filters implement {@link ICostedSearchFilter}.
+ * Compound filters evaluate their parts in the order that is expected to
+ * decide the result soonest for the least cost, and stop as soon as the
+ * result is known.
+ * 
  * @author ck1456@nyu.edu
  * @see ISearchFilter
  */
@@ -50,96 +74,558 @@ public final class SearchFilters {
   private SearchFilters(){
     // No-op
   }
-  
-  private static class NameContactFilter implements ISearchFilter {
+
+  // Assumed for filters that do not implement ICostedSearchFilter
+  static final double DEFAULT_COST = 20;
+  static final double DEFAULT_SELECTIVITY = 0.5;
+
+  /**
+   * Creates a filter matching the contacts that all of the supplied filters
+   * match. Filters are evaluated in order of increasing cost per rejected
+   * contact, and evaluation stops at the first one that does not match. All
+   * filters receive the same query.
+   * 
+   * @param filters the filters to combine
+   * @return a compound filter
+   */
+  public static ICostedSearchFilter and(ISearchFilter... filters) {
+    return new AndFilter(checkFilters(filters));
+  }
+
+  /**
+   * Creates a filter matching the contacts that any of the supplied filters
+   * match. Filters are evaluated in order of increasing cost per matched
+   * contact, and evaluation stops at the first one that matches. All filters
+   * receive the same query.
+   * 
+   * @param filters the filters to combine
+   * @return a compound filter
+   */
+  public static ICostedSearchFilter or(ISearchFilter... filters) {
+    return new OrFilter(checkFilters(filters));
+  }
+
+  /**
+   * Creates a filter matching exactly the contacts that the supplied filter
+   * does not match
+   * 
+   * @param filter the filter to negate
+   * @return a compound filter
+   */
+  public static ICostedSearchFilter not(ISearchFilter filter) {
+    return new NotFilter(checkFilters(filter)[0]);
+  }
+
+  /**
+   * Creates a filter that always evaluates the supplied filter with a fixed
+   * query, ignoring the query it is called with. This allows the parts of a
+   * compound filter to search for different text, e.g. one name and another
+   * city.
+   * 
+   * @param filter the filter to evaluate
+   * @param query the text the filter should look for
+   * @return a filter with a fixed query
+   */
+  public static ICostedSearchFilter withQuery(ISearchFilter filter,
+      String query) {
+    return new FixedQueryFilter(checkFilters(filter)[0], query);
+  }
+
+  /**
+   * Attaches cost and selectivity estimates to a custom filter, so that
+   * compound filters can order it correctly. See {@link ICostedSearchFilter}
+   * for the meaning of the estimates.
+   * 
+   * @param filter the filter to evaluate
+   * @param cost the estimated (non-negative) cost of one evaluation
+   * @param selectivity the estimated fraction of contacts matched, between 0
+   * and 1
+   * @return a filter matching the same contacts as {@code filter}
+   */
+  public static ICostedSearchFilter withEstimates(ISearchFilter filter,
+      double cost, double selectivity) {
+    if (!(cost >= 0)) {
+      throw new IllegalArgumentException("cost must not be negative");
+    }
+    if (!(selectivity >= 0 && selectivity <= 1)) {
+      throw new IllegalArgumentException(
+          "selectivity must be between 0 and 1");
+    }
+    return new EstimatedFilter(checkFilters(filter)[0], cost, selectivity);
+  }
+
+  /**
+   * Gets the estimated cost of a filter, see {@link ICostedSearchFilter}
+   */
+  static double costOf(ISearchFilter filter) {
+    if (filter instanceof ICostedSearchFilter) {
+      return ((ICostedSearchFilter) filter).getCost();
+    }
+    return DEFAULT_COST;
+  }
+
+  /**
+   * Gets the estimated selectivity of a filter, see
+   * {@link ICostedSearchFilter}
+   */
+  static double selectivityOf(ISearchFilter filter) {
+    if (filter instanceof ICostedSearchFilter) {
+      return ((ICostedSearchFilter) filter).getSelectivity();
+    }
+    return DEFAULT_SELECTIVITY;
+  }
+
+  private static ISearchFilter[] checkFilters(ISearchFilter... filters) {
+    if (filters == null || filters.length == 0) {
+      throw new IllegalArgumentException("At least one filter is required");
+    }
+    for (ISearchFilter filter : filters) {
+      if (filter == null) {
+        throw new IllegalArgumentException("filter is not allowed to be null");
+      }
+    }
+    return filters.clone();
+  }
+
+  /**
+   * Tests whether a (possibly null) field contains the query. Filters check
+   * for missing values explicitly rather than catching the exceptions they
+   * would cause, which is much cheaper on contacts with sparse fields.
+   */
+  private static boolean contains(String field, String query) {
+    return field != null && field.contains(query);
+  }
+
+  /**
+   * Base class of the predefined single field filters. Costs are the number
+   * of fields inspected; selectivities are rough guesses for a short query.
+   */
+  private static abstract class FieldFilter implements ICostedSearchFilter {
+    private final String name;
+    private final double cost;
+    private final double selectivity;
+
+    FieldFilter(String name, double cost, double selectivity) {
+      this.name = name;
+      this.cost = cost;
+      this.selectivity = selectivity;
+    }
+
+    @Override
+    public double getCost() {
+      return cost;
+    }
+
+    @Override
+    public double getSelectivity() {
+      return selectivity;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static class NameContactFilter extends FieldFilter {
+    NameContactFilter() {
+      super("Name", 2, 0.05);
+    }
+
     @Override
     public boolean isMatch(String query, Contact contact) {
-      try {
-        ContactName name = contact.getName();
-        if (name.getFirstName().contains(query)
-            || name.getLastName().contains(query)) {
-          return true;
-        }
-      } catch (Exception ex) {
-        // We don't actually care why this failed, but we know it must not match
+      if (query == null || contact == null) {
+        return false;
       }
-      return false;
+      ContactName name = contact.getName();
+      return contains(name.getFirstName(), query)
+          || contains(name.getLastName(), query);
     }
   }
 
-  private static class PostalAddressFilter implements ISearchFilter {
+  private static class PostalAddressFilter extends FieldFilter {
+    PostalAddressFilter() {
+      super("PostalAddress", 6, 0.05);
+    }
+
     @Override
     public boolean isMatch(String query, Contact contact) {
-      try {
-        PostalAddress address = contact.getPostalAddress();
-        if (address.getAddressLine1().contains(query)
-            || address.getAddressLine2().contains(query)
-            || address.getCity().contains(query)
-            || address.getState().contains(query)
-            || address.getCountry().contains(query)
-            || address.getPostalCode().contains(query)) {
-          return true;
-        }
-      } catch (Exception ex) {
-        // We don't actually care why this failed, but we know it must not match
+      if (query == null || contact == null) {
+        return false;
       }
-      return false;
+      PostalAddress address = contact.getPostalAddress();
+      if (address == null) {
+        return false;
+      }
+      return contains(address.getAddressLine1(), query)
+          || contains(address.getAddressLine2(), query)
+          || contains(address.getCity(), query)
+          || contains(address.getState(), query)
+          || contains(address.getCountry(), query)
+          || contains(address.getPostalCode(), query);
     }
   }
   
-  private static class EmailAddressFilter implements ISearchFilter {
+  private static class EmailAddressFilter extends FieldFilter {
+    EmailAddressFilter() {
+      super("EmailAddress", 1, 0.02);
+    }
+
     @Override
     public boolean isMatch(String query, Contact contact) {
-      try {
-        if (contact.getEmailAddress().contains(query)) {
-          return true;
-        }
-      } catch (Exception ex) {
-        // We don't actually care why this failed, but we know it must not match
+      if (query == null || contact == null) {
+        return false;
       }
-      return false;
+      return contains(contact.getEmailAddress(), query);
     }
   }
   
-  private static class NoteFilter implements ISearchFilter {
+  private static class NoteFilter extends FieldFilter {
+    NoteFilter() {
+      super("Note", 1, 0.02);
+    }
+
     @Override
     public boolean isMatch(String query, Contact contact) {
-      try {
-        if (contact.getNote().contains(query)) {
-          return true;
-        }
-      } catch (Exception ex) {
-        // We don't actually care why this failed, but we know it must not match
+      if (query == null || contact == null) {
+        return false;
       }
-      return false;
+      return contains(contact.getNote(), query);
     }
   }
   
-  private static class PhoneNumberFilter implements ISearchFilter {
+  private static class PhoneNumberFilter extends FieldFilter {
+    PhoneNumberFilter() {
+      super("PhoneNumber", 1, 0.02);
+    }
+
     @Override
     public boolean isMatch(String query, Contact contact) {
-      try {
-        if (contact.getPhoneNumber().asString().contains(query)) {
+      if (query == null || contact == null) {
+        return false;
+      }
+      PhoneNumber phoneNumber = contact.getPhoneNumber();
+      return phoneNumber != null && phoneNumber.asString().contains(query);
+    }
+  }
+
+  /**
+   * Matches if all parts match. With independent parts, evaluating them in
+   * increasing order of cost / (1 - selectivity) minimizes the expected cost.
+   */
+  static class AndFilter implements ICostedSearchFilter {
+    private final ISearchFilter[] filters;
+    private final double cost;
+    private final double selectivity;
+
+    AndFilter(ISearchFilter[] filters) {
+      this.filters = sort(filters, true);
+      double expectedCost = 0;
+      double reached = 1;
+      for (ISearchFilter filter : this.filters) {
+        expectedCost += reached * costOf(filter);
+        reached *= selectivityOf(filter);
+      }
+      cost = expectedCost;
+      selectivity = reached;
+    }
+
+    @Override
+    public boolean isMatch(String query, Contact contact) {
+      for (ISearchFilter filter : filters) {
+        if (!filter.isMatch(query, contact)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public double getCost() {
+      return cost;
+    }
+
+    @Override
+    public double getSelectivity() {
+      return selectivity;
+    }
+
+    ISearchFilter[] filters() {
+      return filters.clone();
+    }
+
+    @Override
+    public String toString() {
+      return describe("and", filters);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      // Compound filters are usually built per search; equal ones must share
+      // entries of the search cache
+      return o != null && o.getClass() == getClass()
+          && Arrays.equals(filters, ((AndFilter) o).filters);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(filters);
+    }
+  }
+
+  /**
+   * Matches if any part matches. With independent parts, evaluating them in
+   * increasing order of cost / selectivity minimizes the expected cost.
+   */
+  static class OrFilter implements ICostedSearchFilter {
+    private final ISearchFilter[] filters;
+    private final double cost;
+    private final double selectivity;
+
+    OrFilter(ISearchFilter... filters) {
+      this.filters = sort(filters, false);
+      double expectedCost = 0;
+      double reached = 1;
+      for (ISearchFilter filter : this.filters) {
+        expectedCost += reached * costOf(filter);
+        reached *= 1 - selectivityOf(filter);
+      }
+      cost = expectedCost;
+      selectivity = 1 - reached;
+    }
+
+    @Override
+    public boolean isMatch(String query, Contact contact) {
+      for (ISearchFilter filter : filters) {
+        if (filter.isMatch(query, contact)) {
           return true;
         }
-      } catch (Exception ex) {
-        // We don't actually care why this failed, but we know it must not match
       }
       return false;
     }
+
+    @Override
+    public double getCost() {
+      return cost;
+    }
+
+    @Override
+    public double getSelectivity() {
+      return selectivity;
+    }
+
+    ISearchFilter[] filters() {
+      return filters.clone();
+    }
+
+    @Override
+    public String toString() {
+      return describe("or", filters);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o != null && o.getClass() == getClass()
+          && Arrays.equals(filters, ((OrFilter) o).filters);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Arrays.hashCode(filters) + 1;
+    }
   }
 
-  private static class AnyFieldFilter implements ISearchFilter {
+  private static class AnyFieldFilter extends OrFilter {
+    AnyFieldFilter() {
+      super(Name, PostalAddress, EmailAddress, PhoneNumber, Note);
+    }
+
+    @Override
+    public String toString() {
+      return "AnyField";
+    }
+  }
+
+  static class NotFilter implements ICostedSearchFilter {
+    private final ISearchFilter filter;
+
+    NotFilter(ISearchFilter filter) {
+      this.filter = filter;
+    }
+
     @Override
     public boolean isMatch(String query, Contact contact) {
-      if (Name.isMatch(query, contact)
-          || PostalAddress.isMatch(query, contact)
-          || EmailAddress.isMatch(query, contact)
-          || PhoneNumber.isMatch(query, contact)
-          || Note.isMatch(query, contact)) {
-        return true;
+      return !filter.isMatch(query, contact);
+    }
+
+    @Override
+    public double getCost() {
+      return costOf(filter);
+    }
+
+    @Override
+    public double getSelectivity() {
+      return 1 - selectivityOf(filter);
+    }
+
+    ISearchFilter filter() {
+      return filter;
+    }
+
+    @Override
+    public String toString() {
+      return "not(" + filter + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof NotFilter && filter.equals(((NotFilter) o).filter);
+    }
+
+    @Override
+    public int hashCode() {
+      return ~filter.hashCode();
+    }
+  }
+
+  static class FixedQueryFilter implements ICostedSearchFilter {
+    private final ISearchFilter filter;
+    private final String query;
+
+    FixedQueryFilter(ISearchFilter filter, String query) {
+      this.filter = filter;
+      this.query = query;
+    }
+
+    @Override
+    public boolean isMatch(String ignored, Contact contact) {
+      return filter.isMatch(query, contact);
+    }
+
+    @Override
+    public double getCost() {
+      return costOf(filter);
+    }
+
+    @Override
+    public double getSelectivity() {
+      return selectivityOf(filter);
+    }
+
+    ISearchFilter filter() {
+      return filter;
+    }
+
+    String query() {
+      return query;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s(\"%s\")", filter, query);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FixedQueryFilter)) {
+        return false;
       }
-      return false;
+      FixedQueryFilter other = (FixedQueryFilter) o;
+      return filter.equals(other.filter)
+          && (query == null ? other.query == null : query.equals(other.query));
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * filter.hashCode() + (query == null ? 0 : query.hashCode());
+    }
+  }
+
+  static class EstimatedFilter implements ICostedSearchFilter {
+    private final ISearchFilter filter;
+    private final double cost;
+    private final double selectivity;
+
+    EstimatedFilter(ISearchFilter filter, double cost, double selectivity) {
+      this.filter = filter;
+      this.cost = cost;
+      this.selectivity = selectivity;
+    }
+
+    @Override
+    public boolean isMatch(String query, Contact contact) {
+      return filter.isMatch(query, contact);
+    }
+
+    @Override
+    public double getCost() {
+      return cost;
+    }
+
+    @Override
+    public double getSelectivity() {
+      return selectivity;
+    }
+
+    ISearchFilter filter() {
+      return filter;
+    }
+
+    @Override
+    public String toString() {
+      return filter.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof EstimatedFilter)) {
+        return false;
+      }
+      EstimatedFilter other = (EstimatedFilter) o;
+      return filter.equals(other.filter)
+          && Double.compare(cost, other.cost) == 0
+          && Double.compare(selectivity, other.selectivity) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      long bits = Double.doubleToLongBits(cost) * 31
+          + Double.doubleToLongBits(selectivity);
+      return 31 * filter.hashCode() + (int) (bits ^ (bits >>> 32));
+    }
+  }
+
+  /**
+   * Orders the parts of a compound filter so that the ones most likely to
+   * decide the result cheaply come first. A part decides a conjunction when
+   * it does not match and a disjunction when it does.
+   */
+  private static ISearchFilter[] sort(ISearchFilter[] filters,
+      final boolean conjunction) {
+    Arrays.sort(filters, new Comparator<ISearchFilter>() {
+      @Override
+      public int compare(ISearchFilter arg0, ISearchFilter arg1) {
+        return Double.compare(rank(arg0), rank(arg1));
+      }
+
+      private double rank(ISearchFilter filter) {
+        double decisive = (conjunction ? 1 - selectivityOf(filter)
+            : selectivityOf(filter));
+        return (decisive > 0 ? costOf(filter) / decisive
+            : Double.POSITIVE_INFINITY);
+      }
+    });
+    return filters;
+  }
+
+  private static String describe(String operator, ISearchFilter[] filters) {
+    StringBuilder description = new StringBuilder(operator).append('(');
+    for (int i = 0; i < filters.length; i++) {
+      if (i > 0) {
+        description.append(", ");
+      }
+      description.append(filters[i]);
     }
+    return description.append(')').toString();
   }
 }
\ No newline at end of file
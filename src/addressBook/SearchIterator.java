@@ -0,0 +1,80 @@
+package addressBook;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Evaluates a search filter lazily: each call to {@link #hasNext()} checks
+ * candidates only until the next match is found, and no candidates are
+ * checked once the limit has been reached.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class SearchIterator implements Iterator<Contact> {
+
+  private final Iterator<Contact> candidates;
+  private final String query;
+  private final ISearchFilter filter;
+
+  // The number of matches still to be returned
+  private int remaining;
+
+  // The match found by hasNext but not yet returned by next, or null
+  private Contact next;
+
+  /**
+   * Creates an iterator over the matching candidates
+   *
+   * @param candidates
+   *          a superset of the matching contacts
+   * @param query
+   *          the search text
+   * @param filter
+   *          the filter to evaluate the query with
+   * @param limit
+   *          the maximum number of matches to return
+   */
+  SearchIterator(Iterator<Contact> candidates, String query,
+      ISearchFilter filter, int limit) {
+    this.candidates = candidates;
+    this.query = query;
+    this.filter = filter;
+    remaining = limit;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next != null) {
+      return true;
+    }
+    if (remaining == 0) {
+      return false;
+    }
+    while (candidates.hasNext()) {
+      Contact contact = candidates.next();
+      if (filter.isMatch(query, contact)) {
+        next = contact;
+        return true;
+      }
+    }
+    remaining = 0;
+    return false;
+  }
+
+  @Override
+  public Contact next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Contact result = next;
+    next = null;
+    remaining--;
+    return result;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException(
+        "Use AddressBook.remove to remove contacts");
+  }
+}
@@ -0,0 +1,183 @@
+package addressBook;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains the current {@link AddressBookSnapshot} of an
+ * {@link AddressBook}. Read-only copies of all contacts are kept in a
+ * {@link PersistentTree} ordered by last name, first name and then by the
+ * order in which the contacts were added. Every modification replaces the
+ * copies it affects and publishes a new snapshot, which shares all unchanged
+ * nodes with the previous one. Taking a snapshot therefore only reads a
+ * volatile field.
+ *
+ * Modifications must be serialized by the AddressBook's write lock.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class SnapshotIndex implements IContactObserver {
+
+  /**
+   * A read-only copy of a contact together with the position it was added at,
+   * which orders contacts with identical names
+   */
+  static final class Entry {
+    final Contact contact;
+    final long sequence;
+
+    Entry(Contact contact, long sequence) {
+      this.contact = contact;
+      this.sequence = sequence;
+    }
+  }
+
+  /**
+   * Orders entries by last name and then first name; a null last name is
+   * ordered like an empty one
+   */
+  static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry arg0, Entry arg1) {
+      ContactName name0 = arg0.contact.getName();
+      ContactName name1 = arg1.contact.getName();
+      String last0 = (name0.getLastName() == null ? "" : name0.getLastName());
+      String last1 = (name1.getLastName() == null ? "" : name1.getLastName());
+      int result = last0.compareTo(last1);
+      return (result != 0 ? result : name0.getFirstName().compareTo(
+          name1.getFirstName()));
+    }
+  };
+
+  private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry arg0, Entry arg1) {
+      int result = BY_NAME.compare(arg0, arg1);
+      if (result != 0) {
+        return result;
+      }
+      return (arg0.sequence < arg1.sequence ? -1
+          : (arg0.sequence == arg1.sequence ? 0 : 1));
+    }
+  };
+
+  // Batches larger than this fraction of the tree rebuild it
+  private static final int REBUILD_DIVISOR = 8;
+
+  // The copy currently standing in for each contact of the AddressBook
+  private final Map<Contact, Entry> entries = new HashMap<Contact, Entry>();
+
+  private long nextSequence = 0;
+
+  private long version = 0;
+
+  private PersistentTree<Entry> tree;
+
+  private volatile AddressBookSnapshot current;
+
+  /**
+   * Creates an index over the supplied contacts
+   *
+   * @param contacts
+   *          the contacts of the AddressBook
+   */
+  SnapshotIndex(Collection<Contact> contacts) {
+    List<Entry> sorted = new ArrayList<Entry>(contacts.size());
+    for (Contact c : contacts) {
+      Entry entry = new Entry(c.readOnlyCopy(), nextSequence++);
+      entries.put(c, entry);
+      sorted.add(entry);
+    }
+    Collections.sort(sorted, ORDER);
+    publish(PersistentTree.fromSorted(ORDER, sorted));
+  }
+
+  @Override
+  public void contactAdded(Contact contact) {
+    Entry entry = new Entry(contact.readOnlyCopy(), nextSequence++);
+    entries.put(contact, entry);
+    publish(tree.insert(entry));
+  }
+
+  @Override
+  public void contactRemoved(Contact contact) {
+    Entry entry = entries.remove(contact);
+    if (entry != null) {
+      publish(tree.remove(entry));
+    }
+  }
+
+  @Override
+  public void batchApplied(Collection<Contact> added,
+      Collection<Contact> removed) {
+    List<Entry> removedEntries = new ArrayList<Entry>(removed.size());
+    for (Contact c : removed) {
+      Entry entry = entries.remove(c);
+      if (entry != null) {
+        removedEntries.add(entry);
+      }
+    }
+    List<Entry> addedEntries = new ArrayList<Entry>(added.size());
+    for (Contact c : added) {
+      Entry entry = new Entry(c.readOnlyCopy(), nextSequence++);
+      entries.put(c, entry);
+      addedEntries.add(entry);
+    }
+
+    // Publish once, so that no snapshot holds part of the batch
+    if (removedEntries.size() + addedEntries.size() > tree.size()
+        / REBUILD_DIVISOR) {
+      publish(rebuild());
+    } else {
+      PersistentTree<Entry> newTree = tree;
+      for (Entry entry : removedEntries) {
+        newTree = newTree.remove(entry);
+      }
+      for (Entry entry : addedEntries) {
+        newTree = newTree.insert(entry);
+      }
+      publish(newTree);
+    }
+  }
+
+  @Override
+  public void contactChanged(Contact contact, SearchField field) {
+    Entry old = entries.get(contact);
+    Entry entry = new Entry(contact.readOnlyCopy(), old.sequence);
+    entries.put(contact, entry);
+    if (field != SearchField.NAME || ORDER.compare(old, entry) == 0) {
+      // Same position, so inserting replaces the old copy
+      publish(tree.insert(entry));
+    } else {
+      publish(tree.remove(old).insert(entry));
+    }
+  }
+
+  /**
+   * Gets the snapshot reflecting all modifications seen so far
+   *
+   * @return the current snapshot
+   */
+  AddressBookSnapshot current() {
+    return current;
+  }
+
+  /**
+   * Builds a tree of all current entries
+   */
+  private PersistentTree<Entry> rebuild() {
+    List<Entry> sorted = new ArrayList<Entry>(entries.values());
+    Collections.sort(sorted, ORDER);
+    return PersistentTree.fromSorted(ORDER, sorted);
+  }
+
+  private void publish(PersistentTree<Entry> newTree) {
+    tree = newTree;
+    current = new AddressBookSnapshot(newTree, version++);
+  }
+}
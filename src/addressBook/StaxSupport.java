@@ -0,0 +1,55 @@
+package addressBook;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Small helpers shared by the streaming (StAX) deserializers of the address
+ * book types. These mirror the lenient behavior of the DOM based
+ * {@code fromXml(Element e)} methods, e.g. a missing attribute is read as an
+ * empty string.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class StaxSupport {
+
+  // Not instantiable
+  private StaxSupport() {
+    // No-op
+  }
+
+  /**
+   * Reads an attribute of the current start element.
+   *
+   * @param reader
+   *          a reader positioned on a START_ELEMENT event
+   * @param name
+   *          the local name of the attribute
+   * @return the attribute value or an empty string if it is not present
+   */
+  static String attribute(XMLStreamReader reader, String name) {
+    String value = reader.getAttributeValue(null, name);
+    return (value == null ? "" : value);
+  }
+
+  /**
+   * Advances the reader past the end of the current element, ignoring any
+   * nested content.
+   *
+   * @param reader
+   *          a reader positioned on a START_ELEMENT event
+   * @throws XMLStreamException
+   */
+  static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package addressBook;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded pool of the short field values that repeat across many contacts,
+ * such as first names, cities, states and countries. Setters and loaders pass
+ * these values through {@link #intern(String)}, so that equal values share a
+ * single String instance instead of each record holding its own copy.
+ *
+ * Unlike {@link String#intern()}, the pool is bounded: it holds at most
+ * {@link #CAPACITY} strings and evicts the least recently used one when full.
+ * An evicted string stays in use by the records holding it; only values set
+ * later no longer share it. Long values, which rarely repeat, are not pooled.
+ * The pool is split into independently locked segments so that parallel
+ * loading does not contend on a single lock.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class StringPool {
+
+  /**
+   * The maximum number of strings held by the pool
+   */
+  static final int CAPACITY = 16384;
+
+  /**
+   * Strings longer than this are not pooled
+   */
+  static final int MAX_LENGTH = 32;
+
+  private static final int SEGMENTS = 16;
+
+  private static final Segment[] pool = new Segment[SEGMENTS];
+  static {
+    for (int i = 0; i < SEGMENTS; i++) {
+      pool[i] = new Segment(CAPACITY / SEGMENTS);
+    }
+  }
+
+  // Not instantiable
+  private StringPool() {
+    // No-op
+  }
+
+  /**
+   * Gets the pooled instance equal to a string
+   *
+   * @param value
+   *          the (possibly null) string to look up
+   * @return an equal string, shared with earlier calls if the string is short
+   *         enough to be pooled
+   */
+  static String intern(String value) {
+    if (value == null || value.length() > MAX_LENGTH) {
+      return value;
+    }
+    if (value.isEmpty()) {
+      return "";
+    }
+    Segment segment = pool[(value.hashCode() & 0x7fffffff) % SEGMENTS];
+    synchronized (segment) {
+      String pooled = segment.get(value);
+      if (pooled != null) {
+        return pooled;
+      }
+      segment.put(value, value);
+      return value;
+    }
+  }
+
+  /**
+   * Counts the strings currently held by the pool
+   *
+   * @return the number of pooled strings
+   */
+  static int size() {
+    int size = 0;
+    for (Segment segment : pool) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * A segment of the pool, evicting the least recently used string
+   */
+  private static final class Segment extends LinkedHashMap<String, String> {
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > capacity;
+    }
+  }
+}
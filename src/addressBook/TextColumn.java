@@ -0,0 +1,180 @@
+package addressBook;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * One text field of all contacts of a {@link ColumnarAddressBook}, packed into
+ * a single array. The value of row {@code i} is the range
+ * {@code offsets[i]..offsets[i + 1]} of the array. A column whose values only
+ * contain Latin-1 characters stores one byte per character, any other column
+ * two. Null values are kept in a separate bit set, so that they can be told
+ * apart from empty strings. Columns are immutable once built.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class TextColumn {
+
+  // Array headers, as estimated in FootprintReport
+  private static final int ARRAY_OVERHEAD = 16;
+
+  private final byte[] latin1;
+  private final char[] chars;
+  private final int[] offsets;
+  private final BitSet nulls;
+
+  private TextColumn(byte[] latin1, char[] chars, int[] offsets, BitSet nulls) {
+    this.latin1 = latin1;
+    this.chars = chars;
+    this.offsets = offsets;
+    this.nulls = nulls;
+  }
+
+  /**
+   * Gets the value of a row as a new String
+   *
+   * @param row
+   *          the row to read
+   * @return the value, or null
+   */
+  String get(int row) {
+    if (nulls.get(row)) {
+      return null;
+    }
+    int start = offsets[row];
+    int length = offsets[row + 1] - start;
+    if (chars != null) {
+      return new String(chars, start, length);
+    }
+    char[] value = new char[length];
+    for (int i = 0; i < length; i++) {
+      value[i] = (char) (latin1[start + i] & 0xFF);
+    }
+    return new String(value);
+  }
+
+  /**
+   * Finds the rows whose value contains a query, the equivalent of
+   * {@code value != null && value.contains(query)}
+   *
+   * @param query
+   *          the non-null text to look for
+   * @param rows
+   *          the rows to test
+   * @param matches
+   *          receives the matching rows
+   */
+  void scan(String query, BitSet rows, BitSet matches) {
+    int length = query.length();
+    if (chars == null) {
+      for (int i = 0; i < length; i++) {
+        if (query.charAt(i) > 0xFF) {
+          // Cannot occur in a column of Latin-1 text
+          return;
+        }
+      }
+    }
+    for (int row = rows.nextSetBit(0); row >= 0; row = rows
+        .nextSetBit(row + 1)) {
+      if (!nulls.get(row) && contains(offsets[row], offsets[row + 1], query)) {
+        matches.set(row);
+      }
+    }
+  }
+
+  private boolean contains(int start, int end, String query) {
+    int length = query.length();
+    if (length == 0) {
+      return true;
+    }
+    char first = query.charAt(0);
+    int last = end - length;
+    for (int i = start; i <= last; i++) {
+      if (charAt(i) != first) {
+        continue;
+      }
+      int j = 1;
+      while (j < length && charAt(i + j) == query.charAt(j)) {
+        j++;
+      }
+      if (j == length) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private char charAt(int index) {
+    return (chars != null ? chars[index] : (char) (latin1[index] & 0xFF));
+  }
+
+  /**
+   * Estimates the heap memory used by this column
+   *
+   * @return the estimated size in bytes
+   */
+  long estimatedBytes() {
+    long text = (chars != null ? 2L * chars.length : latin1.length);
+    return 3 * ARRAY_OVERHEAD + text + 4L * offsets.length
+        + nulls.size() / 8;
+  }
+
+  /**
+   * Collects the values of a column, one row at a time
+   */
+  static final class Builder {
+    private final StringBuilder text = new StringBuilder();
+    private final BitSet nulls = new BitSet();
+    private int[] offsets;
+    private int rows = 0;
+    private boolean latin1 = true;
+
+    /**
+     * @param expectedRows
+     *          the expected number of rows
+     */
+    Builder(int expectedRows) {
+      offsets = new int[Math.max(expectedRows, 0) + 1];
+    }
+
+    /**
+     * Appends the value of the next row
+     *
+     * @param value
+     *          the value, possibly null
+     */
+    void add(String value) {
+      if (rows + 1 == offsets.length) {
+        offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+      }
+      if (value == null) {
+        nulls.set(rows);
+      } else {
+        for (int i = 0; latin1 && i < value.length(); i++) {
+          latin1 = (value.charAt(i) <= 0xFF);
+        }
+        text.append(value);
+      }
+      rows++;
+      offsets[rows] = text.length();
+    }
+
+    /**
+     * @return a column holding the values added so far
+     */
+    TextColumn build() {
+      int[] packedOffsets = Arrays.copyOf(offsets, rows + 1);
+      int length = text.length();
+      if (!latin1) {
+        char[] chars = new char[length];
+        text.getChars(0, length, chars, 0);
+        return new TextColumn(null, chars, packedOffsets, nulls);
+      }
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        bytes[i] = (byte) text.charAt(i);
+      }
+      return new TextColumn(bytes, null, packedOffsets, nulls);
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package addressBook;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from every three character substring (trigram) of a
+ * field to the contacts containing it, kept separately for each
+ * {@link SearchField}. Any contact containing a query of three or more
+ * characters must contain every trigram of the query, so intersecting the
+ * posting sets of the query's trigrams yields a small superset of the
+ * matching contacts. Candidates still have to be checked with the filter,
+ * which keeps results identical to a full scan. Lookups are chosen by the
+ * {@link QueryPlanner}. The index of a concurrent AddressBook may be read
+ * while it is being modified.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class TrigramIndex implements IContactObserver {
+
+  static final int GRAM_LENGTH = 3;
+
+  private final boolean concurrent;
+
+  private final Map<SearchField, Map<Long, Set<Contact>>> postings =
+      new EnumMap<SearchField, Map<Long, Set<Contact>>>(SearchField.class);
+
+  // The values each contact was indexed with, needed to unindex it later
+  private final Map<Contact, String[][]> indexedValues;
+
+  /**
+   * Creates an index over the supplied contacts
+   *
+   * @param contacts
+   *          the contacts to index initially
+   * @param concurrent
+   *          whether the index may be read while it is modified
+   */
+  TrigramIndex(Collection<Contact> contacts, boolean concurrent) {
+    this.concurrent = concurrent;
+    indexedValues = ContactCollections.newMap(concurrent);
+    for (SearchField field : SearchField.values()) {
+      Map<Long, Set<Contact>> fieldPostings =
+          ContactCollections.newMap(concurrent);
+      postings.put(field, fieldPostings);
+    }
+    for (Contact c : contacts) {
+      contactAdded(c);
+    }
+  }
+
+  @Override
+  public void contactAdded(Contact contact) {
+    SearchField[] fields = SearchField.values();
+    String[][] values = new String[fields.length][];
+    for (SearchField field : fields) {
+      values[field.ordinal()] = field.valuesOf(contact);
+      index(field, values[field.ordinal()], contact);
+    }
+    indexedValues.put(contact, values);
+  }
+
+  @Override
+  public void contactRemoved(Contact contact) {
+    String[][] values = indexedValues.remove(contact);
+    if (values == null) {
+      return;
+    }
+    for (SearchField field : SearchField.values()) {
+      unindex(field, values[field.ordinal()], contact);
+    }
+  }
+
+  @Override
+  public void batchApplied(Collection<Contact> added,
+      Collection<Contact> removed) {
+    for (Contact c : removed) {
+      contactRemoved(c);
+    }
+    for (Contact c : added) {
+      contactAdded(c);
+    }
+  }
+
+  @Override
+  public void contactChanged(Contact contact, SearchField field) {
+    // Only the changed field group is reindexed
+    String[][] values = indexedValues.get(contact);
+    String[] newValues = field.valuesOf(contact);
+    unindex(field, values[field.ordinal()], contact);
+    index(field, newValues, contact);
+    values[field.ordinal()] = newValues;
+  }
+
+  private void index(SearchField field, String[] values, Contact contact) {
+    Map<Long, Set<Contact>> fieldPostings = postings.get(field);
+    for (String value : values) {
+      if (value == null) {
+        continue;
+      }
+      for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+        Long gram = gram(value, i);
+        Set<Contact> posting = fieldPostings.get(gram);
+        if (posting == null) {
+          posting = ContactCollections.newSet(concurrent);
+          fieldPostings.put(gram, posting);
+        }
+        posting.add(contact);
+      }
+    }
+  }
+
+  private void unindex(SearchField field, String[] values, Contact contact) {
+    Map<Long, Set<Contact>> fieldPostings = postings.get(field);
+    for (String value : values) {
+      if (value == null) {
+        continue;
+      }
+      for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+        Long gram = gram(value, i);
+        Set<Contact> posting = fieldPostings.get(gram);
+        if (posting != null && posting.remove(contact) && posting.isEmpty()) {
+          fieldPostings.remove(gram);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests whether the index can look up a query
+   *
+   * @param query
+   *          the search text
+   * @return true if the query is at least as long as a trigram
+   */
+  static boolean canLookUp(String query) {
+    return query != null && query.length() >= GRAM_LENGTH;
+  }
+
+  /**
+   * Estimates the number of candidates {@link #candidates(String, SearchField)}
+   * would return, without computing them: the size of the smallest posting
+   * set of the query's trigrams.
+   *
+   * @param query
+   *          search text of at least three characters
+   * @param field
+   *          the field group to look in
+   * @return an upper bound of the number of candidates
+   */
+  int estimate(String query, SearchField field) {
+    Map<Long, Set<Contact>> fieldPostings = postings.get(field);
+    int smallest = Integer.MAX_VALUE;
+    for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+      Set<Contact> posting = fieldPostings.get(gram(query, i));
+      if (posting == null) {
+        return 0;
+      }
+      smallest = Math.min(smallest, posting.size());
+    }
+    return smallest;
+  }
+
+  /**
+   * Finds the contacts whose field group contains every trigram of the query
+   *
+   * @param query
+   *          search text of at least three characters
+   * @param field
+   *          the field group to look in
+   * @return a superset of the contacts whose field contains the query
+   */
+  Set<Contact> candidates(String query, SearchField field) {
+    Map<Long, Set<Contact>> fieldPostings = postings.get(field);
+    List<Set<Contact>> matched = new ArrayList<Set<Contact>>();
+    Set<Contact> smallest = null;
+    for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+      Set<Contact> posting = fieldPostings.get(gram(query, i));
+      if (posting == null) {
+        return Collections.emptySet();
+      }
+      if (smallest == null || posting.size() < smallest.size()) {
+        smallest = posting;
+      }
+      matched.add(posting);
+    }
+
+    Set<Contact> result = new LinkedHashSet<Contact>();
+    candidate: for (Contact c : smallest) {
+      for (Set<Contact> posting : matched) {
+        if (posting != smallest && !posting.contains(c)) {
+          continue candidate;
+        }
+      }
+      result.add(c);
+    }
+    return result;
+  }
+
+  private static Long gram(String s, int start) {
+    return ((long) s.charAt(start) << 32) | ((long) s.charAt(start + 1) << 16)
+        | s.charAt(start + 2);
+  }
+}
@@ -0,0 +1,183 @@
+package addressBook;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
+/**
+ * A minimal forward-only XML writer used to serialize an {@link AddressBook}
+ * without building a DOM. Its output is byte-for-byte identical to what the
+ * JDK identity {@code Transformer} produces for the equivalent DOM (UTF-8, no
+ * XML declaration, no indentation), including the character escaping rules.
+ *
+ * Note that the Transformer writes attributes in alphabetical order, so
+ * callers must supply attributes of an element sorted by name to remain
+ * compatible.
+ *
+ * @author ck1456@nyu.edu
+ */
+final class XmlWriter {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Writer out;
+
+  // true while the last start tag has not yet been closed with '>'
+  private boolean startTagOpen = false;
+
+  /**
+   * Creates a writer that encodes to UTF-8 on the supplied stream using a
+   * fixed size buffer.
+   *
+   * @param os
+   *          the stream to write into
+   */
+  XmlWriter(OutputStream os) {
+    try {
+      out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"),
+          BUFFER_SIZE);
+    } catch (UnsupportedEncodingException e) {
+      // UTF-8 is required to be supported by every JVM
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Opens a new element. Attributes may be added until content or another
+   * element is written.
+   *
+   * @param name
+   *          the element name
+   * @throws IOException
+   */
+  void startElement(String name) throws IOException {
+    closeStartTag();
+    out.write('<');
+    out.write(name);
+    startTagOpen = true;
+  }
+
+  /**
+   * Adds an attribute to the element that was just opened.
+   *
+   * @param name
+   *          the attribute name
+   * @param value
+   *          the (non-null) attribute value
+   * @throws IOException
+   */
+  void attribute(String name, String value) throws IOException {
+    out.write(' ');
+    out.write(name);
+    out.write("=\"");
+    escape(value, true);
+    out.write('"');
+  }
+
+  /**
+   * Writes character content into the current element. A null or empty value
+   * writes nothing, matching an element without a text node.
+   *
+   * @param value
+   *          the (possibly null) text to write
+   * @throws IOException
+   */
+  void text(String value) throws IOException {
+    if (value == null || value.isEmpty()) {
+      return;
+    }
+    closeStartTag();
+    escape(value, false);
+  }
+
+  /**
+   * Closes the current element. An element without content is written in
+   * the short form {@code <name/>}.
+   *
+   * @param name
+   *          the element name
+   * @throws IOException
+   */
+  void endElement(String name) throws IOException {
+    if (startTagOpen) {
+      out.write("/>");
+      startTagOpen = false;
+    } else {
+      out.write("</");
+      out.write(name);
+      out.write('>');
+    }
+  }
+
+  /**
+   * Flushes any buffered output to the underlying stream without closing it.
+   *
+   * @throws IOException
+   */
+  void flush() throws IOException {
+    out.flush();
+  }
+
+  private void closeStartTag() throws IOException {
+    if (startTagOpen) {
+      out.write('>');
+      startTagOpen = false;
+    }
+  }
+
+  private void escape(String value, boolean inAttribute) throws IOException {
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      switch (c) {
+      case '&':
+        out.write("&amp;");
+        break;
+      case '<':
+        out.write("&lt;");
+        break;
+      case '>':
+        out.write("&gt;");
+        break;
+      case '"':
+        if (inAttribute) {
+          out.write("&quot;");
+        } else {
+          out.write(c);
+        }
+        break;
+      case '\t':
+      case '\n':
+        if (inAttribute) {
+          writeCharRef(c);
+        } else {
+          out.write(c);
+        }
+        break;
+      default:
+        if (Character.isHighSurrogate(c)) {
+          if (i + 1 >= length
+              || !Character.isLowSurrogate(value.charAt(i + 1))) {
+            throw new IOException("Invalid UTF-16 surrogate detected: "
+                + Integer.toHexString(c));
+          }
+          writeCharRef(Character.toCodePoint(c, value.charAt(++i)));
+        } else if (c < 0x20 || Character.isLowSurrogate(c)
+            || (!inAttribute && c >= 0x7F && c <= 0x9F)) {
+          writeCharRef(c);
+        } else {
+          out.write(c);
+        }
+      }
+    }
+  }
+
+  private void writeCharRef(int codePoint) throws IOException {
+    out.write("&#");
+    out.write(Integer.toString(codePoint));
+    out.write(';');
+  }
+}
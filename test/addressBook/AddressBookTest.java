@@ -3,6 +3,8 @@ package addressBook;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -10,9 +12,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 
@@ -21,9 +33,17 @@ import org.junit.Test;
 import org.xml.sax.SAXException;
 
 import addressBook.AddressBook;
+import addressBook.AddressBookSnapshot;
+import addressBook.ColumnarAddressBook;
 import addressBook.Contact;
+import addressBook.ContactPage;
+import addressBook.FootprintReport;
+import addressBook.ICostedSearchFilter;
+import addressBook.ISearchFilter;
+import addressBook.OffHeapAddressBook;
 import addressBook.PhoneNumber;
 import addressBook.PostalAddress;
+import addressBook.SearchCacheStats;
 import addressBook.SearchFilters;
 
 public class AddressBookTest {
@@ -135,4 +155,841 @@ public class AddressBookTest {
 		InputStream is = new FileInputStream(file);
 		AddressBook.load(is);
 	}
+	
+	@Test
+	public void testLoadStreaming() throws ParserConfigurationException,
+			TransformerFactoryConfigurationError, TransformerException, 
+			XMLStreamException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		addressBook.save(os);
+		AddressBook loaded = AddressBook.loadStreaming(
+				new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(addressBook.size(), loaded.size());
+		
+		List<Contact> contactList = loaded.getAllContacts();
+		Contact gates = contactList.get(1);
+		assertEquals("William", gates.getName().getFirstName());
+		assertEquals("Gates", gates.getName().getLastName());
+		assertEquals("wg1544@hotmail.com", gates.getEmailAddress());
+		assertEquals("the first contact inserted", gates.getNote());
+		assertEquals("2127740908", gates.getPhoneNumber().asString());
+		assertEquals(contact1.getPostalAddress(), gates.getPostalAddress());
+		
+		Contact pepper = contactList.get(0);
+		assertEquals("Pepper", pepper.getName().getFirstName());
+		assertEquals("", pepper.getNote());
+	}
+	
+	@Test
+	public void testSaveStreamingMatchesSave() throws ParserConfigurationException,
+			TransformerFactoryConfigurationError, TransformerException, IOException {
+		contact2.setNote("a \"quoted\" <note> & more\r\n");
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		addressBook.save(expected);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		addressBook.saveStreaming(actual);
+		assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+	}
+	
+	@Test
+	public void testBinaryRoundTrip() throws IOException {
+		contact3.getName().setLastName(null);
+		addressBook.saveBinary("addressBookTest.bin");
+		AddressBook loaded = AddressBook.loadBinary("addressBookTest.bin");
+		assertEquals(3, loaded.size());
+		
+		List<Contact> result = loaded.search("Zach", SearchFilters.Name);
+		assertEquals(1, result.size());
+		Contact zach = result.get(0);
+		assertNull(zach.getName().getLastName());
+		assertEquals("wolfe22@gmail.com", zach.getEmailAddress());
+		assertEquals("family account", zach.getNote());
+		assertEquals("2018450098", zach.getPhoneNumber().asString());
+		assertEquals(contact3.getPostalAddress(), zach.getPostalAddress());
+		
+		result = loaded.search("Pepper", SearchFilters.Name);
+		assertNull(result.get(0).getNote());
+	}
+	
+	@Test
+	public void testJournalReplay() throws IOException {
+		new File("addressBookTest.snapshot").delete();
+		new File("addressBookTest.journal").delete();
+		AddressBook journaled = AddressBook.loadJournaled(
+				"addressBookTest.snapshot", "addressBookTest.journal");
+		journaled.add(contact1);
+		journaled.add(contact2);
+		journaled.add(contact3);
+		journaled.compactJournal();
+		journaled.remove(contact2);
+		contact1.setEmailAddress("bill@gatesfoundation.org");
+		contact3.getPostalAddress().setCity("Hoboken");
+		journaled.closeJournal();
+		
+		AddressBook reloaded = AddressBook.loadJournaled(
+				"addressBookTest.snapshot", "addressBookTest.journal");
+		assertEquals(2, reloaded.size());
+		assertTrue(reloaded.search("Pepper").isEmpty());
+		assertEquals(1, reloaded.search("bill@gatesfoundation.org", 
+				SearchFilters.EmailAddress).size());
+		assertEquals(1, reloaded.search("Hoboken", 
+				SearchFilters.PostalAddress).size());
+		reloaded.closeJournal();
+	}
+	
+	@Test
+	public void testJournalReplayAfterLargeBatch() throws IOException {
+		new File("addressBookTest.snapshot").delete();
+		new File("addressBookTest.journal").delete();
+		AddressBook journaled = AddressBook.loadJournaled(
+				"addressBookTest.snapshot", "addressBookTest.journal");
+		List<Contact> first = new ArrayList<Contact>();
+		List<Contact> second = new ArrayList<Contact>();
+		for (int i = 0; i < 1500; i++) {
+			first.add(Contact.createWithName("First" + i, "Batch"));
+			second.add(Contact.createWithName("Second" + i, "Batch"));
+		}
+		// Both batches write more records than the journal holds before it
+		// is compacted
+		journaled.addAll(first);
+		journaled.replaceAll(second);
+		journaled.closeJournal();
+		
+		AddressBook reloaded = AddressBook.loadJournaled(
+				"addressBookTest.snapshot", "addressBookTest.journal");
+		assertEquals(1500, reloaded.size());
+		assertTrue(reloaded.search("First", SearchFilters.Name).isEmpty());
+		assertEquals(1500, reloaded.search("Second", SearchFilters.Name).size());
+		reloaded.closeJournal();
+	}
+	
+	@Test
+	public void testSubstringIndex() {
+		addressBook.enableSubstringIndex();
+		List<Contact> result = addressBook.search("New York", SearchFilters.PostalAddress);
+		assertEquals(2, result.size());
+		assertTrue(result.contains(contact1));
+		assertTrue(result.contains(contact2));
+		assertEquals(3, addressBook.search("NYU").size());
+		assertEquals(1, addressBook.search("774", SearchFilters.PhoneNumber).size());
+		assertTrue(addressBook.search("family", SearchFilters.Name).isEmpty());
+		
+		contact2.getPostalAddress().setCity("Brooklyn");
+		contact3.setNote("Brooklyn office");
+		addressBook.remove(contact1);
+		assertTrue(addressBook.search("New York", SearchFilters.PostalAddress).isEmpty());
+		result = addressBook.search("Brooklyn");
+		assertEquals(2, result.size());
+		assertTrue(result.contains(contact2));
+		assertTrue(result.contains(contact3));
+		
+		// queries shorter than the index granularity fall back to a scan
+		assertEquals(2, addressBook.search("NY", SearchFilters.PostalAddress).size());
+		addressBook.disableSubstringIndex();
+		assertEquals(2, addressBook.search("Brooklyn").size());
+	}
+	
+	@Test
+	public void testSearchByNamePrefix() {
+		Contact contact4 = Contact.createWithName("Walter", "Anderson");
+		addressBook.add(contact4);
+		
+		List<Contact> result = addressBook.searchByNamePrefix("W", 10);
+		assertEquals(3, result.size());
+		assertEquals(contact4, result.get(0));
+		assertEquals(contact1, result.get(1));
+		assertEquals(contact3, result.get(2));
+		
+		result = addressBook.searchByNamePrefix("W", 2);
+		assertEquals(2, result.size());
+		assertEquals(contact1, result.get(1));
+		
+		assertEquals(4, addressBook.searchByNamePrefix("", 10).size());
+		assertTrue(addressBook.searchByNamePrefix("ates", 10).isEmpty());
+		
+		contact2.getName().setLastName("Potts");
+		addressBook.remove(contact4);
+		result = addressBook.searchByNamePrefix("P", 10);
+		assertEquals(1, result.size());
+		assertEquals(contact2, result.get(0));
+		assertEquals(2, addressBook.searchByNamePrefix("W", 10).size());
+	}
+	
+	@Test
+	public void testGetAllContactsStaysSorted() {
+		List<Contact> contactList = addressBook.getAllContacts();
+		assertSame(contactList, addressBook.getAllContacts());
+		assertEquals(contact2, contactList.get(0));
+		assertEquals(contact1, contactList.get(1));
+		assertEquals(contact3, contactList.get(2));
+		
+		contact1.setNote("not a name change");
+		assertSame(contactList, addressBook.getAllContacts());
+		
+		contact1.getName().setLastName("Zimmer");
+		List<Contact> renamed = addressBook.getAllContacts();
+		assertNotSame(contactList, renamed);
+		assertEquals(contact1, contactList.get(1));
+		assertEquals(contact3, renamed.get(1));
+		assertEquals(contact1, renamed.get(2));
+		
+		Contact contact4 = Contact.createWithName("Ann", "Baker");
+		addressBook.add(contact4);
+		assertEquals(contact4, addressBook.getAllContacts().get(1));
+		addressBook.remove(contact4);
+		assertEquals(3, addressBook.getAllContacts().size());
+	}
+	
+	@Test
+	public void testConcurrentAddressBook() throws InterruptedException {
+		final AddressBook concurrentBook = AddressBook.createConcurrent();
+		concurrentBook.enableSubstringIndex();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 500; i++) {
+						Contact c = Contact.createWithName("First" + i, "Thread" + thread);
+						concurrentBook.add(c);
+						concurrentBook.search("Thread");
+						concurrentBook.getAllContacts();
+						if (i % 2 == 0) {
+							concurrentBook.remove(c);
+						}
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+		
+		assertEquals(1000, concurrentBook.size());
+		assertEquals(1000, concurrentBook.getAllContacts().size());
+		assertEquals(250, concurrentBook.search("Thread2", SearchFilters.Name).size());
+		assertEquals("Thread0", concurrentBook.getAllContacts().get(0).getName().getLastName());
+	}
+
+	@Test
+	public void testSaveBinaryWhileContactsChange() throws Exception {
+		final AddressBook concurrentBook = AddressBook.createConcurrent();
+		final List<Contact> contacts = new ArrayList<Contact>();
+		for (int i = 0; i < 20000; i++) {
+			Contact c = Contact.createWithName("First" + i, "Last" + (i % 100));
+			c.setNote("note " + i);
+			contacts.add(c);
+		}
+		concurrentBook.addAll(contacts);
+		
+		final AtomicBoolean done = new AtomicBoolean(false);
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; !done.get(); i++) {
+					Contact c = contacts.get(i % contacts.size());
+					c.setNote("changed " + i);
+					c.getName().setLastName("Changed" + (i % 100));
+				}
+			}
+		});
+		writer.start();
+		try {
+			for (int i = 0; i < 10; i++) {
+				concurrentBook.saveBinary(new ByteArrayOutputStream());
+			}
+			concurrentBook.saveBinary("addressBookConcurrentTest.bin");
+		} finally {
+			done.set(true);
+			writer.join();
+		}
+		AddressBook loaded = AddressBook.loadBinary("addressBookConcurrentTest.bin");
+		assertEquals(20000, loaded.size());
+		assertEquals(20000, loaded.search("First", SearchFilters.Name).size());
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		AddressBook book = AddressBook.createEmpty();
+		Contact smith = Contact.createWithName("John", "Smith");
+		Contact doe = Contact.createWithName("Jane", "Doe");
+		book.add(smith);
+		book.add(doe);
+		
+		AddressBookSnapshot before = book.snapshot();
+		assertSame(before, book.snapshot());
+		book.remove(doe);
+		book.add(Contact.createWithName("Adam", "Zed"));
+		smith.setNote("changed");
+		smith.getName().setLastName("Brown");
+		AddressBookSnapshot after = book.snapshot();
+		
+		assertTrue(after.getVersion() > before.getVersion());
+		assertEquals(2, before.size());
+		assertEquals("Doe", before.getAllContacts().get(0).getName().getLastName());
+		assertEquals("Smith", before.getAllContacts().get(1).getName().getLastName());
+		assertNull(before.getAllContacts().get(1).getNote());
+		assertEquals(0, before.search("changed").size());
+		assertEquals(1, after.search("changed").size());
+		assertEquals("Brown", after.getAllContacts().get(0).getName().getLastName());
+		assertEquals("Zed", after.getAllContacts().get(1).getName().getLastName());
+		
+		ByteArrayOutputStream snapshotXml = new ByteArrayOutputStream();
+		after.save(snapshotXml);
+		ByteArrayOutputStream bookXml = new ByteArrayOutputStream();
+		book.saveStreaming(bookXml);
+		assertArrayEquals(bookXml.toByteArray(), snapshotXml.toByteArray());
+		
+		try {
+			before.getAllContacts().get(0).setNote("not allowed");
+			fail("Contacts of a snapshot should be read-only");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSearchParallel() {
+		AddressBook largeBook = AddressBook.createEmpty();
+		for (int i = 0; i < 5000; i++) {
+			largeBook.add(Contact.createWithName("First" + i, "Last" + (i % 97)));
+		}
+		List<Contact> expected = new ArrayList<Contact>();
+		for (Contact c : largeBook.getAllContacts()) {
+			if (SearchFilters.Name.isMatch("7", c)) {
+				expected.add(c);
+			}
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(expected, largeBook.searchParallel("7", SearchFilters.Name, pool));
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(expected, largeBook.searchParallel("7", SearchFilters.Name));
+		
+		// Small books are searched sequentially with the same result order
+		assertEquals(Arrays.asList(contact2, contact1),
+				addressBook.searchParallel("New York", SearchFilters.PostalAddress));
+		
+		// Only the candidates of an index lookup are searched, then sorted;
+		// contacts with identical names keep the order they were added in
+		largeBook.add(Contact.createWithName("First171", "Last74"));
+		largeBook.enableSubstringIndex();
+		expected.clear();
+		for (Contact c : largeBook.getAllContacts()) {
+			if (SearchFilters.Name.isMatch("First171", c)) {
+				expected.add(c);
+			}
+		}
+		assertEquals(12, expected.size());
+		assertEquals(expected, largeBook.searchParallel("First171", SearchFilters.Name));
+	}
+
+	@Test
+	public void testFilterAlgebra() {
+		ISearchFilter newYorkNotFirst = SearchFilters.and(
+				SearchFilters.withQuery(SearchFilters.PostalAddress, "New York"),
+				SearchFilters.not(SearchFilters.withQuery(SearchFilters.Note, "first")));
+		assertEquals(Arrays.asList(contact2), addressBook.search(null, newYorkNotFirst));
+		
+		ISearchFilter zachOrPepper = SearchFilters.or(
+				SearchFilters.withQuery(SearchFilters.Name, "Zach"),
+				SearchFilters.withQuery(SearchFilters.EmailAddress, "pepper"));
+		assertEquals(2, addressBook.search("ignored", zachOrPepper).size());
+		assertEquals(addressBook.search("NY", SearchFilters.AnyField).size(),
+				addressBook.search("NY", SearchFilters.or(SearchFilters.Note, SearchFilters.Name,
+						SearchFilters.PostalAddress, SearchFilters.PhoneNumber, SearchFilters.EmailAddress)).size());
+		
+		// The cheap, selective filter is evaluated first and stops evaluation
+		final int[] calls = new int[1];
+		ISearchFilter expensive = SearchFilters.withEstimates(new ISearchFilter() {
+			@Override
+			public boolean isMatch(String query, Contact contact) {
+				calls[0]++;
+				return true;
+			}
+		}, 100, 0.9);
+		ICostedSearchFilter both = SearchFilters.and(expensive, SearchFilters.EmailAddress);
+		assertTrue(addressBook.search("nobody@", both).isEmpty());
+		assertEquals(0, calls[0]);
+		assertTrue(both.getCost() < 100);
+		assertEquals(0.018, both.getSelectivity(), 1e-9);
+	}
+
+	@Test
+	public void testExplain() {
+		AddressBook largeBook = AddressBook.createEmpty();
+		for (int i = 0; i < 2000; i++) {
+			Contact c = Contact.createWithName("First" + i, "Last" + (i % 97));
+			c.setNote(i % 2 == 0 ? "even" : "odd");
+			largeBook.add(c);
+		}
+		ISearchFilter filter = SearchFilters.and(SearchFilters.Name,
+				SearchFilters.not(SearchFilters.withQuery(SearchFilters.Note, "odd")));
+		List<Contact> unindexed = largeBook.search("Last42", filter);
+		assertTrue(largeBook.explain("Last42", filter).contains("Scan all 2000 contacts"));
+		
+		largeBook.enableSubstringIndex();
+		String plan = largeBook.explain("Last42", filter);
+		assertTrue(plan, plan.contains("Substring index lookup"));
+		assertFalse(plan, plan.contains("Scan"));
+		List<Contact> indexed = largeBook.search("Last42", filter);
+		assertEquals(unindexed.size(), indexed.size());
+		assertTrue(indexed.containsAll(unindexed));
+		
+		ISearchFilter either = SearchFilters.or(SearchFilters.Name, SearchFilters.EmailAddress);
+		plan = largeBook.explain("First19", either);
+		assertTrue(plan, plan.contains("Union"));
+		assertEquals(111, largeBook.search("First19", either).size());
+		
+		// Custom filters cannot be looked up
+		ISearchFilter custom = new ISearchFilter() {
+			@Override
+			public boolean isMatch(String query, Contact contact) {
+				return contact.getName().getLastName().equals(query);
+			}
+		};
+		assertTrue(largeBook.explain("Last42", custom).contains("Scan all 2000 contacts"));
+		assertEquals(21, largeBook.search("Last42", custom).size());
+	}
+
+	@Test
+	public void testSearchCache() {
+		assertNull(addressBook.getSearchCacheStats());
+		addressBook.enableSearchCache(2);
+		assertEquals(2, addressBook.search("New York", SearchFilters.PostalAddress).size());
+		assertEquals(2, addressBook.search("New York", SearchFilters.PostalAddress).size());
+		
+		// Changes only drop the results they affect
+		contact3.setNote("moving to New York");
+		assertEquals(0, addressBook.getSearchCacheStats().getInvalidationCount());
+		assertEquals(1, addressBook.search("NJ", SearchFilters.PostalAddress).size());
+		SearchCacheStats stats = addressBook.getSearchCacheStats();
+		assertEquals(1, stats.getHitCount());
+		assertEquals(2, stats.getMissCount());
+		assertEquals(2, stats.getEntryCount());
+		contact3.getPostalAddress().setCity("New York");
+		assertEquals(2, addressBook.getSearchCacheStats().getInvalidationCount());
+		assertEquals(1, addressBook.search("NJ", SearchFilters.PostalAddress).size());
+		assertEquals(3, addressBook.search("New York", SearchFilters.PostalAddress).size());
+		
+		addressBook.remove(contact1);
+		assertEquals(2, addressBook.search("New York", SearchFilters.PostalAddress).size());
+		Contact newYorker = Contact.createWithName("Peter", "Stuyvesant");
+		newYorker.setPostalAddress(new PostalAddress("1 Bowling Green", "", "New York", "NY", "US", "10004"));
+		addressBook.add(newYorker);
+		assertEquals(3, addressBook.search("New York", SearchFilters.PostalAddress).size());
+		
+		// The least recently used result is evicted
+		addressBook.search("Wolfe", SearchFilters.Name);
+		addressBook.search("Pepper", SearchFilters.Name);
+		stats = addressBook.getSearchCacheStats();
+		assertEquals(2, stats.getEntryCount());
+		assertTrue(stats.getEvictionCount() > 0);
+		
+		// Returned lists are copies
+		addressBook.search("Wolfe", SearchFilters.Name).clear();
+		assertEquals(1, addressBook.search("Wolfe", SearchFilters.Name).size());
+		
+		addressBook.disableSearchCache();
+		assertNull(addressBook.getSearchCacheStats());
+	}
+
+	@Test
+	public void testSearchCacheWithCompoundFilters() {
+		addressBook.enableSearchCache(10);
+		for (int i = 0; i < 2; i++) {
+			// A new but equal filter is built for every search
+			ISearchFilter filter = SearchFilters.and(SearchFilters.PostalAddress,
+					SearchFilters.not(SearchFilters.withQuery(SearchFilters.Note, "CEO")),
+					SearchFilters.withEstimates(SearchFilters.or(SearchFilters.Name, SearchFilters.EmailAddress), 1, 0.5));
+			assertEquals(0, addressBook.search("New York", filter).size());
+			assertEquals(2, addressBook.search("New York", SearchFilters.and(SearchFilters.PostalAddress,
+					SearchFilters.not(SearchFilters.Note))).size());
+		}
+		SearchCacheStats stats = addressBook.getSearchCacheStats();
+		assertEquals(2, stats.getHitCount());
+		assertEquals(2, stats.getMissCount());
+		assertEquals(2, stats.getEntryCount());
+		
+		// Filters with different parts or queries are kept apart
+		assertFalse(SearchFilters.withQuery(SearchFilters.Note, "CEO").equals(
+				SearchFilters.withQuery(SearchFilters.Note, "CTO")));
+		assertFalse(SearchFilters.or(SearchFilters.Name, SearchFilters.Note).equals(
+				SearchFilters.and(SearchFilters.Name, SearchFilters.Note)));
+	}
+
+	@Test
+	public void testFindByEmailAddressAndPhoneNumber() throws Exception {
+		assertEquals(Arrays.asList(contact3), addressBook.findByEmailAddress(" Wolfe22@Gmail.com"));
+		assertTrue(addressBook.findByEmailAddress("wolfe22@gmail").isEmpty());
+		assertEquals(Arrays.asList(contact1), addressBook.findByPhoneNumber("(212) 774-0908"));
+		assertEquals(Arrays.asList(contact2),
+				addressBook.findByPhoneNumber(PhoneNumber.createNew("714-988-3232")));
+		assertTrue(addressBook.findByPhoneNumber("not a number").isEmpty());
+		
+		// The indexes follow changes of the contacts
+		contact3.setEmailAddress("zach@wolfe.org");
+		contact1.setPhoneNumber(null);
+		assertTrue(addressBook.findByEmailAddress("wolfe22@gmail.com").isEmpty());
+		assertEquals(Arrays.asList(contact3), addressBook.findByEmailAddress("zach@wolfe.org"));
+		assertTrue(addressBook.findByPhoneNumber("2127740908").isEmpty());
+		addressBook.remove(contact3);
+		assertTrue(addressBook.findByEmailAddress("zach@wolfe.org").isEmpty());
+		
+		Contact duplicate = Contact.createWithName("Pepper", "Potts");
+		duplicate.setEmailAddress("PEPPER@microsoft.com");
+		addressBook.setUniqueEmailAddresses(true);
+		try {
+			addressBook.add(duplicate);
+			fail("Duplicate email address was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(2, addressBook.size());
+		addressBook.setUniqueEmailAddresses(false);
+		addressBook.add(duplicate);
+		assertEquals(2, addressBook.findByEmailAddress("pepper@microsoft.com").size());
+		try {
+			addressBook.setUniqueEmailAddresses(true);
+			fail("Existing duplicates were accepted");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		
+		addressBook.setUniquePhoneNumbers(true);
+		Contact samePhone = Contact.createWithName("Virginia", "Potts");
+		samePhone.setPhoneNumber(PhoneNumber.createNew("+1 714 988 3232"));
+		try {
+			addressBook.add(samePhone);
+			fail("Duplicate phone number was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testFieldLevelChanges() {
+		addressBook.enableSearchCache(10);
+		addressBook.enableSubstringIndex();
+		addressBook.search("Gates", SearchFilters.Name);
+		addressBook.search("Gates", SearchFilters.AnyField);
+		
+		// Unchanged values and other fields leave single field results alone
+		contact1.setEmailAddress(contact1.getEmailAddress());
+		contact1.getName().setLastName("Gates");
+		assertEquals(0, addressBook.getSearchCacheStats().getInvalidationCount());
+		contact1.setNote("co-founder");
+		assertEquals(1, addressBook.getSearchCacheStats().getInvalidationCount());
+		assertEquals(1, addressBook.search("Gates", SearchFilters.Name).size());
+		assertEquals(1, addressBook.getSearchCacheStats().getHitCount());
+		assertEquals(Arrays.asList(contact1), addressBook.search("founder", SearchFilters.Note));
+		
+		contact1.getName().setLastName("Bates");
+		assertTrue(addressBook.search("Gates", SearchFilters.Name).isEmpty());
+		assertEquals(Arrays.asList(contact1), addressBook.search("Bates"));
+		assertEquals(Arrays.asList(contact2, contact1, contact3), addressBook.getAllContacts());
+	}
+
+	@Test
+	public void testGetPage() {
+		AddressBook largeBook = AddressBook.createEmpty();
+		for (int i = 0; i < 95; i++) {
+			largeBook.add(Contact.createWithName("First" + (i % 10), "Last" + (i % 7)));
+		}
+		List<Contact> paged = new ArrayList<Contact>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			ContactPage page = largeBook.getPage(Contact.SORT_BY_LAST_NAME, 10, cursor);
+			assertTrue(page.getContacts().size() <= 10);
+			paged.addAll(page.getContacts());
+			cursor = page.getNextCursor();
+			pages++;
+		} while (cursor != null);
+		assertEquals(10, pages);
+		assertEquals(largeBook.getAllContacts(), paged);
+		
+		// Contacts added before the cursor do not shift the following pages
+		ContactPage first = largeBook.getPage(Contact.SORT_BY_FIRST_NAME, 20, null);
+		ContactPage second = largeBook.getPage(Contact.SORT_BY_FIRST_NAME, 20, first.getNextCursor());
+		largeBook.add(Contact.createWithName("Aaron", "Last0"));
+		largeBook.add(Contact.createWithName("First0", "Last0"));
+		assertEquals(second.getContacts(),
+				largeBook.getPage(Contact.SORT_BY_FIRST_NAME, 20, first.getNextCursor()).getContacts());
+		
+		// Nor do contacts removed before the cursor, even with identical names
+		AddressBook sameNames = AddressBook.createEmpty();
+		List<Contact> lees = new ArrayList<Contact>();
+		for (int i = 0; i < 5; i++) {
+			lees.add(Contact.createWithName("Ann", "Lee"));
+		}
+		sameNames.addAll(lees);
+		lees = sameNames.getPage(Contact.SORT_BY_LAST_NAME, 5, null).getContacts();
+		ContactPage firstLees = sameNames.getPage(Contact.SORT_BY_LAST_NAME, 2, null);
+		sameNames.remove(lees.get(0));
+		assertEquals(lees.subList(2, 4),
+				sameNames.getPage(Contact.SORT_BY_LAST_NAME, 2, firstLees.getNextCursor()).getContacts());
+		
+		// A removed contact at the cursor is replaced by the one following it
+		sameNames.remove(lees.get(2));
+		assertEquals(lees.subList(3, 5),
+				sameNames.getPage(Contact.SORT_BY_LAST_NAME, 2, firstLees.getNextCursor()).getContacts());
+		
+		try {
+			largeBook.getPage(Contact.SORT_BY_LAST_NAME, 20, first.getNextCursor());
+			fail("A cursor of a different order was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			largeBook.getPage(Contact.SORT_BY_LAST_NAME, 20, "garbage");
+			fail("An invalid cursor was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertFalse(addressBook.getPage(Contact.SORT_BY_LAST_NAME, 3, null).hasNext());
+	}
+
+	@Test
+	public void testSearchIterator() {
+		AddressBook largeBook = AddressBook.createEmpty();
+		for (int i = 0; i < 1000; i++) {
+			largeBook.add(Contact.createWithName("First" + i, "Last" + i));
+		}
+		final int[] calls = new int[1];
+		ISearchFilter counting = new ISearchFilter() {
+			@Override
+			public boolean isMatch(String query, Contact contact) {
+				calls[0]++;
+				return SearchFilters.Name.isMatch(query, contact);
+			}
+		};
+		Iterator<Contact> matches = largeBook.searchIterator("Last", counting, 20);
+		assertEquals(0, calls[0]);
+		List<Contact> first = new ArrayList<Contact>();
+		while (matches.hasNext()) {
+			first.add(matches.next());
+		}
+		assertEquals(20, first.size());
+		assertEquals(20, calls[0]);
+		assertEquals(largeBook.search("Last", counting).subList(0, 20), first);
+		
+		List<Contact> all = new ArrayList<Contact>();
+		for (Iterator<Contact> it = addressBook.searchIterator("New York", SearchFilters.PostalAddress); it.hasNext();) {
+			all.add(it.next());
+		}
+		assertEquals(addressBook.search("New York", SearchFilters.PostalAddress), all);
+		assertFalse(addressBook.searchIterator("New York", SearchFilters.PostalAddress, 0).hasNext());
+	}
+
+	@Test
+	public void testBatchOperations() {
+		addressBook.enableSubstringIndex();
+		addressBook.setUniqueEmailAddresses(true);
+		AddressBookSnapshot before = addressBook.snapshot();
+		List<Contact> batch = new ArrayList<Contact>();
+		for (int i = 0; i < 10; i++) {
+			Contact c = Contact.createWithName("First" + i, "Batch");
+			c.setEmailAddress("batch" + i + "@example.org");
+			batch.add(c);
+		}
+		batch.add(contact1);
+		addressBook.addAll(batch);
+		assertEquals(13, addressBook.size());
+		assertEquals(before.getVersion() + 1, addressBook.snapshot().getVersion());
+		assertEquals(10, addressBook.search("Batch", SearchFilters.Name).size());
+		assertEquals(Arrays.asList(batch.get(3)), addressBook.findByEmailAddress("batch3@example.org"));
+		
+		// A batch violating uniqueness is rejected as a whole
+		Contact duplicate = Contact.createWithName("Bill", "Gates");
+		duplicate.setEmailAddress("wg1544@hotmail.com");
+		try {
+			addressBook.addAll(Arrays.asList(Contact.createWithName("New", "Contact"), duplicate));
+			fail("Duplicate email address was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(13, addressBook.size());
+		
+		addressBook.removeAll(batch.subList(0, 5));
+		assertEquals(8, addressBook.size());
+		assertTrue(addressBook.search("First3", SearchFilters.Name).isEmpty());
+		
+		// Replacing the contents keeps the contacts present in both
+		addressBook.replaceAll(Arrays.asList(contact2, duplicate));
+		assertEquals(Arrays.asList(contact2, duplicate), addressBook.getAllContacts());
+		assertEquals(Arrays.asList(duplicate), addressBook.findByEmailAddress("wg1544@hotmail.com"));
+		contact2.setNote("still indexed");
+		assertEquals(Arrays.asList(contact2), addressBook.search("indexed", SearchFilters.Note));
+		assertEquals(3, before.size());
+	}
+
+	@Test
+	public void testFootprintReport() {
+		AddressBook largeBook = AddressBook.createEmpty();
+		for (int i = 0; i < 100; i++) {
+			Contact c = Contact.createWithName(new String("Mary"), "Smith" + i);
+			c.setPostalAddress(new PostalAddress(i + " Broadway", "",
+					new String("New York"), new String("NY"), new String("US"), "10012"));
+			largeBook.add(c);
+		}
+		Contact first = largeBook.getAllContacts().get(0);
+		Contact last = largeBook.getAllContacts().get(99);
+		assertSame(first.getName().getFirstName(), last.getName().getFirstName());
+		assertSame(first.getPostalAddress().getCity(), last.getPostalAddress().getCity());
+		
+		FootprintReport report = largeBook.getFootprintReport();
+		assertEquals(100, report.getContactCount());
+		assertEquals(800, report.getStringReferences());
+		assertTrue(report.getDistinctStrings() <= 206);
+		assertTrue(report.getSavedBytes() > 0);
+		assertEquals(report.getObjectBytes() + report.getStringBytes(), report.getTotalBytes());
+	}
+
+	@Test
+	public void testColumnarAddressBook() {
+		Contact accented = Contact.createWithName("Zo\u00eb", "\u674e");
+		accented.setNote("");
+		addressBook.add(accented);
+		ColumnarAddressBook columnar = addressBook.toColumnar();
+		assertEquals(4, columnar.size());
+		assertEquals(names(addressBook.getAllContacts()), names(columnar.getAllContacts()));
+		
+		ISearchFilter custom = new ISearchFilter() {
+			@Override
+			public boolean isMatch(String query, Contact contact) {
+				return contact.getName().getLastName() == null;
+			}
+		};
+		ISearchFilter[] filters = { SearchFilters.AnyField, SearchFilters.Name,
+				SearchFilters.PostalAddress, SearchFilters.EmailAddress,
+				SearchFilters.PhoneNumber, SearchFilters.Note, custom,
+				SearchFilters.and(SearchFilters.PostalAddress, SearchFilters.not(SearchFilters.Note)),
+				SearchFilters.or(SearchFilters.Name, SearchFilters.withQuery(SearchFilters.Note, "family")) };
+		String[] queries = { "", "NYU", "New York", "212", "77", "\u00eb", "\u674e", "family", "x", null };
+		for (ISearchFilter filter : filters) {
+			for (String query : queries) {
+				assertEquals(filter + " " + query, names(sorted(addressBook.search(query, filter))),
+						names(columnar.search(query, filter)));
+			}
+		}
+		
+		Contact view = columnar.search("Wolfe", SearchFilters.Name).get(0);
+		assertEquals("wolfe22@gmail.com", view.getEmailAddress());
+		assertEquals("Jersey City", view.getPostalAddress().getCity());
+		assertEquals("2018450098", view.getPhoneNumber().asString());
+		try {
+			view.setNote("changed");
+			fail("Columnar contacts are read-only");
+		} catch (UnsupportedOperationException e) {
+		}
+		contact3.setNote("changed");
+		assertEquals("family account", columnar.search("Wolfe", SearchFilters.Name).get(0).getNote());
+	}
+	
+	@Test
+	public void testOffHeapAddressBook() throws Exception {
+		Contact accented = Contact.createWithName("Zo\u00eb", "\u674e");
+		accented.setNote("");
+		addressBook.add(accented);
+		OffHeapAddressBook offHeap = OffHeapAddressBook.createEmpty();
+		offHeap.addAll(addressBook.getAllContacts());
+		assertEquals(4, offHeap.size());
+		assertTrue(offHeap.getOffHeapBytes() > 0);
+		assertEquals(names(addressBook.getAllContacts()), names(offHeap.getAllContacts()));
+		
+		ISearchFilter[] filters = { SearchFilters.AnyField, SearchFilters.Name,
+				SearchFilters.PostalAddress, SearchFilters.EmailAddress,
+				SearchFilters.PhoneNumber, SearchFilters.Note, SearchFilters.and(
+						SearchFilters.PostalAddress, SearchFilters.not(SearchFilters.Note)) };
+		String[] queries = { "", "NYU", "New York", "212", "77", "\u00eb", "\u674e", "x", null };
+		for (ISearchFilter filter : filters) {
+			for (String query : queries) {
+				assertEquals(filter + " " + query, names(sorted(addressBook.search(query, filter))),
+						names(offHeap.search(query, filter)));
+			}
+		}
+		
+		Contact view = offHeap.search("Wolfe", SearchFilters.Name).get(0);
+		assertEquals("family account", view.getNote());
+		assertEquals("07311", view.getPostalAddress().getPostalCode());
+		assertEquals("2018450098", view.getPhoneNumber().asString());
+		try {
+			view.getName().setFirstName("Zack");
+			fail("Off-heap contacts are read-only");
+		} catch (UnsupportedOperationException e) {
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		offHeap.save(out);
+		AddressBook reloaded = AddressBook.load(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(names(addressBook.getAllContacts()), names(reloaded.getAllContacts()));
+		OffHeapAddressBook reloadedOffHeap = OffHeapAddressBook.load(new ByteArrayInputStream(out.toByteArray()));
+		List<String> expected = names(addressBook.search("NY", SearchFilters.PostalAddress));
+		List<String> actual = names(reloadedOffHeap.search("NY", SearchFilters.PostalAddress));
+		Collections.sort(expected);
+		Collections.sort(actual);
+		assertEquals(expected, actual);
+		
+		// Removed contacts are left out everywhere, and the book is compacted
+		// once most contacts are removed
+		List<Contact> all = reloaded.getAllContacts();
+		List<String> remaining = names(all);
+		reloadedOffHeap.remove(1);
+		remaining.remove(1);
+		assertEquals(remaining, names(reloadedOffHeap.getAllContacts()));
+		assertEquals(remaining.get(1), names(Arrays.asList(reloadedOffHeap.getContact(1))).get(0));
+		assertTrue(reloadedOffHeap.search(all.get(1).getName().getFirstName(), SearchFilters.Name).isEmpty());
+		
+		OffHeapAddressBook large = OffHeapAddressBook.createEmpty();
+		List<String> largeNames = new ArrayList<String>();
+		for (int i = 0; i < 5000; i++) {
+			large.add(Contact.createWithName("First" + i, "Last" + (i % 7)));
+			largeNames.add("First" + i + " Last" + (i % 7));
+		}
+		for (int i = 4000; i >= 0; i -= 2) {
+			large.remove(i);
+			largeNames.remove(i);
+			if (i == 2500) {
+				assertEquals(largeNames.get(2000), names(Arrays.asList(large.getContact(2000))).get(0));
+			}
+		}
+		large.add(Contact.createWithName("Added", "Last0"));
+		largeNames.add("Added Last0");
+		assertEquals(3000, large.size());
+		assertEquals(largeNames, names(large.getAllContacts()));
+		assertEquals(largeNames.get(2500), names(large.getAllContacts().subList(2500, 2501)).get(0));
+		int lastZero = 0;
+		for (String name : largeNames) {
+			if (name.endsWith("Last0")) {
+				lastZero++;
+			}
+		}
+		assertEquals(lastZero, large.search("Last0", SearchFilters.Name).size());
+		ByteArrayOutputStream largeOut = new ByteArrayOutputStream();
+		large.save(largeOut);
+		assertEquals(largeNames, names(OffHeapAddressBook.load(new ByteArrayInputStream(largeOut.toByteArray())).getAllContacts()));
+		for (int i = 2999; i >= 1000; i--) {
+			large.remove(i);
+		}
+		assertEquals(largeNames.subList(0, 1000), names(large.getAllContacts()));
+		assertEquals(largeNames.get(999), names(Arrays.asList(large.getContact(999))).get(0));
+	}
+	
+	private static List<String> names(List<Contact> contacts) {
+		List<String> names = new ArrayList<String>();
+		for (Contact c : contacts) {
+			names.add(c.getName().getFirstName() + " " + c.getName().getLastName());
+		}
+		return names;
+	}
+	
+	private List<Contact> sorted(List<Contact> contacts) {
+		List<Contact> sorted = new ArrayList<Contact>(addressBook.getAllContacts());
+		sorted.retainAll(contacts);
+		return sorted;
+	}
 }
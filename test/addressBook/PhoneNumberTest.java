@@ -2,6 +2,10 @@ package addressBook;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
 public class PhoneNumberTest {
@@ -25,4 +29,36 @@ public class PhoneNumberTest {
 		PhoneNumber ph2 = PhoneNumber.tryCreateNew("tls");
 		assertNull(ph2);
 	}
+	
+	@Test
+	public void testToString() {
+		PhoneNumber ph = PhoneNumber.tryCreateNew("(212) 514-0098 ext. 12");
+		assertEquals("Country Code: 1 National Number: 2125140098 Extension: 12", ph.toString());
+		assertSame(ph.asString(), ph.asString());
+		assertEquals("Country Code: 1 National Number: 2017740908",
+				PhoneNumber.fromParts(1, 2017740908L).toString());
+	}
+	
+	@Test
+	public void testParseAll() {
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			inputs.add(i % 10 == 0 ? "not a number" : "212-514-" + (1000 + i % 50));
+		}
+		inputs.add(null);
+		inputs.add("+44 20 7946 0958");
+		
+		List<PhoneNumberParseResult> results = PhoneNumber.parseAll(inputs, "US");
+		assertEquals(inputs.size(), results.size());
+		assertTrue(results.get(1).isSuccess());
+		assertEquals("2125141001", results.get(1).getPhoneNumber().asString());
+		assertFalse(results.get(10).isSuccess());
+		assertNull(results.get(10).getPhoneNumber());
+		assertEquals(PhoneNumberParseResult.Error.NOT_A_NUMBER, results.get(10).getError());
+		assertEquals(PhoneNumberParseResult.Error.NOT_A_NUMBER, results.get(1000).getError());
+		assertEquals("2079460958", results.get(1001).getPhoneNumber().asString());
+		
+		assertEquals(PhoneNumberParseResult.Error.INVALID_COUNTRY_CODE,
+				PhoneNumber.parseAll(Arrays.asList("514-0098"), "ZZ").get(0).getError());
+	}
 }